@@ -0,0 +1,82 @@
+import java.util.*;
+import java.util.stream.*;
+
+class AllocationMap 
+{
+    private final Map<String, Register> register;
+    private final Map<String, Integer> stack;
+    private final Map<String, String> constant;
+    private final List<Register> callee;
+    private final int stackReserved;
+    private final int stackSlots;
+
+    // `s` is the slot of each spilled variable, see RegAllocHelper.packStackSlots
+    public AllocationMap(Map<String, Register> r, Map<String, Integer> s, Map<String, String> c) 
+    {
+        this(r, s, c, r.values());
+    }
+
+    // `used` are all the registers the function is given, in the order they were handed out
+    protected AllocationMap(Map<String, Register> r, Map<String, Integer> s, Map<String, String> c, Collection<Register> used) 
+    {
+        register = r;
+        stack = s;
+        constant = c;
+        callee = used.stream().filter(Register::isCalleeSaved).distinct().collect(Collectors.toList());
+        stackReserved = callee.size();
+        stackSlots = s.values().stream().mapToInt(slot -> slot + 1).max().orElse(0);
+    }
+
+    public List<Register> usedCalleeRegister() 
+    {
+        return new ArrayList<>(callee);
+    }
+
+    public Register lookupRegister(String s) 
+    {
+        return register.getOrDefault(s, null);
+    }
+
+    // Where s is at an instruction, position -1 being the function entry.
+    // A variable stays in one place unless the allocator splits it.
+    public Register lookupRegister(String s, int position) 
+    {
+        return lookupRegister(s);
+    }
+
+    // The literal or label s is assigned again from wherever it has no
+    // register, instead of being kept on the stack; null for a variable
+    public String lookupConstant(String s) 
+    {
+        return constant.get(s);
+    }
+
+    public int lookupStack(String s) 
+    {
+        Integer offset = stack.get(s);
+        return offset == null ? -1 : offset + stackReserved;
+    }
+
+    public int stackSize() 
+    {
+        return stackSlots + stackReserved;
+    }
+
+    // Assignments (lhs, rhs) moving split variables between registers and the
+    // stack: before an instruction, after its labels; before its labels, on the
+    // way in from the instruction above; and on the taken edge of a jump.
+    public List<String[]> movesBefore(int position) 
+    {
+        return Collections.emptyList();
+    }
+
+    public List<String[]> movesBeforeLabels(int position) 
+    {
+        return Collections.emptyList();
+    }
+
+    public List<String[]> movesOnJump(int position) 
+    {
+        return Collections.emptyList();
+    }
+}
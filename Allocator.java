@@ -0,0 +1,272 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+
+class Allocator 
+{
+    private RegisterPool pool;
+    private List<Interval> active;
+
+    // Everything is indexed by the symbol ids of the flow graph; names come back
+    // only in the AllocationMap handed to the converter.
+    private Symbol.SymbolTable symbols;
+    private Register[] register;
+    private int[] assigned;         // order in which register[] entries were made, 0 for none
+    private int assignments;
+    private boolean[] unusedParams;
+    private boolean[] onStack;
+    private List<Integer> stack;
+    private String[] constants;
+
+    // Move-related variables (`a = b` between two variables), used as register hints
+    private int[][] partners;
+    private FlowGraphNode[] moveAt;
+
+    // Uses and definitions weighted by loop depth; the cheapest interval is spilled
+    private long[] weights;
+
+    // The flow graph numbers the variables; its moves give register hints and
+    // its loops give spill weights.
+    public AllocationMap computeAllocation(List<Interval> ci, VVarRef.Local[] params, FlowGraph graph) 
+    {
+        symbols = graph.getSymbols();
+        int count = symbols.size();
+
+        pool = RegisterPool.CreateGlobalPool();
+        active = new ArrayList<>();
+        register = new Register[count];
+        assigned = new int[count];
+        assignments = 0;
+        unusedParams = new boolean[count];
+        onStack = new boolean[count];
+        stack = new ArrayList<>();
+        constants = graph.getConstants();
+        weights = graph.getSpillWeights();
+        moveAt = new FlowGraphNode[graph.nodesCount()];
+
+        // partners[v], in the order of the moves, counted first and then filled
+        int[] degree = new int[count];
+        List<FlowGraphNode> moves = graph.getMoves();
+
+        for (FlowGraphNode move : moves) 
+        {
+            for (int dst : move.getDefIds()) 
+            {
+                degree[dst]++;
+                degree[move.getMoveSourceId()]++;
+            }
+        }
+
+        partners = new int[count][];
+        for (int v = 0; v < count; v++)
+            partners[v] = new int[degree[v]];
+
+        Arrays.fill(degree, 0);
+        for (FlowGraphNode move : moves) 
+        {
+            int src = move.getMoveSourceId();
+
+            for (int dst : move.getDefIds()) 
+            {
+                partners[dst][degree[dst]++] = src;
+                partners[src][degree[src]++] = dst;
+            }
+
+            moveAt[move.getIndex()] = move;
+        }
+
+        List<Interval> intervals = new ArrayList<>(ci);
+
+        // Sort by increasing start point
+        intervals.sort(Comparator.comparingInt(Interval::getStart));
+
+        boolean[] hasInterval = new boolean[count];
+        for (Interval i : intervals)
+            hasInterval[i.getId()] = true;
+
+        // Map params to registers (in a0~a3 and `in` stack)
+        for (int i = 0; i < params.length; i++) 
+        {
+            int arg = symbols.lookup(params[i].ident);
+
+            // If parameter is used during the function
+            if (arg != -1 && hasInterval[arg]) 
+            {
+                if (pool.hasFree()) 
+                {
+                    // For those args that are not able to be put into registers,
+                    // we move them into `local` stack later (by spilling them).
+                    assign(arg, pool.acquire());
+                    unusedParams[arg] = true;
+                }
+            }
+        }
+
+        for (Interval i : intervals) 
+        {
+            expireOldInterval(i);
+
+            // No need to allocate registers for the first parameters
+            if (i.getStart() > 0 || !unusedParams[i.getId()]) 
+            {
+                if (coalesceWithSource(i)) 
+                {
+                    continue;
+                }
+                else if (!pool.hasFree()) 
+                {
+                    spillAtInterval(i);
+                } 
+                else 
+                {
+                    assign(i.getId(), acquireHinted(i.getId()));
+                    active.add(i);
+                }
+            }
+        }
+
+        // Resolve the ids back to names, registers in the order they were handed out
+        Integer[] order = new Integer[count];
+        for (int v = 0; v < count; v++)
+            order[v] = v;
+
+        Arrays.sort(order, Comparator.comparingInt(v -> assigned[v]));
+
+        Map<String, Register> registers = new LinkedHashMap<>();
+        for (int v : order) 
+        {
+            if (register[v] != null)
+                registers.put(symbols.name(v), register[v]);
+        }
+
+        Map<String, Integer> slots = RegAllocHelper.packStackSlots(ci, stack);
+
+        return new AllocationMap(registers, slots, graph.getConstantsByName());
+    }
+
+    public int getSpillCount() 
+    {
+        return stack.size();
+    }
+
+    private void assign(int var, Register reg) 
+    {
+        if (register[var] == null)
+            assigned[var] = ++assignments;
+
+        register[var] = reg;
+    }
+
+    // A constant needs no slot
+    private void spill(int var) 
+    {
+        if (!onStack[var] && constants[var] == null) 
+        {
+            onStack[var] = true;
+            stack.add(var);
+        }
+    }
+
+    // If the interval starts at a move `var = src` and src dies there,
+    // var takes over src's register and the move becomes a no-op.
+    private boolean coalesceWithSource(Interval interval) 
+    {
+        FlowGraphNode move = interval.getStart() < moveAt.length ? moveAt[interval.getStart()] : null;
+
+        if (move == null || !move.defines(interval.getId()))
+            return false;
+
+        int src = move.getMoveSourceId();
+        Register reg = register[src];
+
+        for (Iterator<Interval> iter = active.iterator(); iter.hasNext();) 
+        {
+            Interval i = iter.next();
+
+            if (i.getId() == src && i.getEnd() == interval.getStart() && reg != null) 
+            {
+                iter.remove();
+                unusedParams[src] = false;
+
+                assign(interval.getId(), reg);
+                active.add(interval);
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Prefer a free register already given to a move-related variable
+    private Register acquireHinted(int var) 
+    {
+        for (int partner : partners[var]) 
+        {
+            Register reg = register[partner];
+
+            if (reg != null && pool.isFree(reg))
+                return pool.acquire(reg);
+        }
+
+        return pool.acquire();
+    }
+
+    private void expireOldInterval(Interval interval) 
+    {
+        // Sort by increasing end point
+        active.sort(Comparator.comparingInt(Interval::getEnd));
+
+        for (Iterator<Interval> iter = active.iterator(); iter.hasNext();) 
+        {
+            Interval i = iter.next();
+
+            if (i.getEnd() >= interval.getStart())
+                return;
+
+            iter.remove();
+            pool.release(register[i.getId()]);
+
+            // release the interval of first parameters
+            unusedParams[i.getId()] = false;
+        }
+    }
+
+    private long weight(Interval interval) 
+    {
+        return weights[interval.getId()];
+    }
+
+    private void spillAtInterval(Interval interval) 
+    {
+        // Sort by increasing end point
+        active.sort(Comparator.comparingInt(Interval::getEnd));
+
+        // Intervals for function parameters are marked as fixed. (They are not spilled)
+        // Of the others, take the cheapest, and the one ending last among equals.
+        Interval spill = null;
+
+        for (int idx = active.size() - 1; idx >= 0; idx--) 
+        {
+            Interval i = active.get(idx);
+
+            if (!unusedParams[i.getId()] && (spill == null || weight(i) < weight(spill)))
+                spill = i;
+        }
+
+        if (spill != null && (weight(spill) < weight(interval) 
+                || (weight(spill) == weight(interval) && spill.getEnd() > interval.getEnd()))) 
+        {
+            assign(interval.getId(), register[spill.getId()]);
+            register[spill.getId()] = null;
+            assigned[spill.getId()] = 0;
+            spill(spill.getId());
+            active.remove(spill);
+            active.add(interval);
+        } 
+        else 
+        {
+            spill(interval.getId());
+        }
+    }
+}
@@ -0,0 +1,831 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+
+// Second-chance binpacking (Traub, Holloway and Smith): one pass over the
+// instructions in order, with the registers as bins. A variable gives up its
+// register wherever it is not live, so others fill its lifetime holes. When a
+// register is needed and none is free, the variable whose next use is farthest
+// goes to its stack slot, and it comes back into a register at its next use
+// rather than staying on the stack for good. Where the two ends of a jump
+// disagree on where a variable is, moves on that edge reconcile them.
+class BinpackingAllocator 
+{
+    // Same registers, in the same order of preference, as the global pool
+    private static final Register[] registers = 
+    {
+        Register.t0, Register.t1, Register.t2, Register.t3,
+        Register.t4, Register.t5, Register.t6, Register.t7,
+        Register.t8,
+        Register.s0, Register.s1, Register.s2, Register.s3,
+        Register.s4, Register.s5, Register.s6, Register.s7
+    };
+
+    // Places of a variable other than registers[r]
+    private static final int MEMORY = -1;
+    private static final int NOWHERE = -2;
+
+    private FlowGraph graph;
+    private Liveness liveness;
+    private Symbol.SymbolTable symbols;
+
+    private int[] place;            // registers index, MEMORY or NOWHERE, by variable
+    private boolean[] dirty;        // the register holds a value the stack slot does not
+    private int[] holder;           // variable in each register, -1 for none
+    private int[] home;             // register each variable was last in, -1 for none
+    private int[] slot;             // place of each variable in stack, -1 until it needs a slot
+    private List<Integer> stack;
+    private String[] constants;     // see FlowGraph.getConstants; these never get a slot
+    private List<Register> used;
+
+    // Positions of the uses of each variable, in increasing order
+    private int[][] uses;
+
+    // Variables live across some call, which are better off in $s registers
+    private boolean[] crossesCall;
+
+    // The jump at each node: its target, or -1; and whether it can fall through
+    private int[] target;
+    private boolean[] fallsThrough;
+    private List<List<Integer>> jumpsInto;
+
+    // Loops around the current node, innermost on top, as {header, last node}
+    private Deque<int[]> loops;
+    private int[] referenced;       // stamp of the node or loop that last referenced each variable
+
+    private Map<Integer, List<SplitAllocationMap.Move>> before;
+    private Map<Integer, List<SplitAllocationMap.Move>> beforeLabels;
+    private Map<Integer, List<SplitAllocationMap.Move>> onJump;
+    private int[][] located;
+    private int[][] entryPlaces;    // (variable, place) at each jump target
+    private int[][] exitPlaces;     // (variable, place, dirty) at each jump
+
+    public AllocationMap computeAllocation(FlowGraph g, Liveness l, VVarRef.Local[] params) 
+    {
+        graph = g;
+        liveness = l;
+        symbols = graph.getSymbols();
+
+        int n = graph.nodesCount();
+        int count = symbols.size();
+
+        place = new int[count];
+        Arrays.fill(place, NOWHERE);
+        dirty = new boolean[count];
+        holder = new int[registers.length];
+        Arrays.fill(holder, -1);
+        home = new int[count];
+        Arrays.fill(home, -1);
+        slot = new int[count];
+        Arrays.fill(slot, -1);
+        stack = new ArrayList<>();
+        constants = graph.getConstants();
+        used = new ArrayList<>();
+        loops = new ArrayDeque<>();
+        referenced = new int[count];
+        before = new HashMap<>();
+        beforeLabels = new HashMap<>();
+        onJump = new HashMap<>();
+        located = new int[n + 1][];
+        entryPlaces = new int[n][];
+        exitPlaces = new int[n][];
+
+        findJumps();
+        findUses();
+        findCallCrossings();
+
+        // Parameters live on entry take registers in order, the rest their slots
+        List<Integer> entry = new ArrayList<>();
+        for (VVarRef.Local p : params) 
+        {
+            int id = symbols.lookup(p.ident);
+
+            if (id != -1 && n > 0 && Liveness.contains(liveness.getInBits(0), id)) 
+            {
+                int r = freeRegister(id);
+
+                if (r != -1) 
+                {
+                    assign(id, r);
+                    dirty[id] = true;
+                } 
+                else 
+                {
+                    toMemory(id);
+                }
+
+                entry.add(id);
+            }
+        }
+
+        located[0] = locate(entry);
+
+        for (int i = 0; i < n; i++)
+            allocate(i);
+
+        for (int p = 0; p < n; p++) 
+        {
+            if (target[p] != -1)
+                resolve(p, target[p]);
+        }
+
+        Map<String, Integer> slots = stack.isEmpty() ? Collections.emptyMap() 
+            : RegAllocHelper.packStackSlots(RegAllocHelper.generateLiveIntervals(graph, liveness), stack);
+
+        return new SplitAllocationMap(symbols, slots, graph.getConstantsByName(), used, located, before, beforeLabels, onJump);
+    }
+
+    public int getSpillCount() 
+    {
+        return stack.size();
+    }
+
+    private void findJumps() 
+    {
+        int n = graph.nodesCount();
+        target = new int[n];
+        fallsThrough = new boolean[n];
+        jumpsInto = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) 
+        {
+            VInstr instr = graph.getNode(i).getInstr();
+            target[i] = -1;
+            fallsThrough[i] = !(instr instanceof VGoto || instr instanceof VReturn);
+            jumpsInto.add(null);
+
+            if (instr instanceof VBranch)
+                target[i] = ((VBranch) instr).target.getTarget().instrIndex;
+            else if (instr instanceof VGoto && ((VGoto) instr).target instanceof VAddr.Label)
+                target[i] = ((VAddr.Label<VCodeLabel>) ((VGoto) instr).target).label.getTarget().instrIndex;
+        }
+
+        for (int i = 0; i < n; i++) 
+        {
+            if (target[i] != -1) 
+            {
+                if (jumpsInto.get(target[i]) == null)
+                    jumpsInto.set(target[i], new ArrayList<>());
+
+                jumpsInto.get(target[i]).add(i);
+            }
+        }
+    }
+
+    // uses[v], in increasing order, counted first and then filled
+    private void findUses() 
+    {
+        int count = symbols.size();
+        int[] degree = new int[count];
+
+        for (FlowGraphNode node : graph.getNodes()) 
+        {
+            for (int u : node.getUseIds())
+                degree[u]++;
+        }
+
+        uses = new int[count][];
+        for (int v = 0; v < count; v++)
+            uses[v] = new int[degree[v]];
+
+        Arrays.fill(degree, 0);
+        for (FlowGraphNode node : graph.getNodes()) 
+        {
+            for (int u : node.getUseIds())
+                uses[u][degree[u]++] = node.getIndex();
+        }
+    }
+
+    private void findCallCrossings() 
+    {
+        crossesCall = new boolean[symbols.size()];
+
+        for (FlowGraphNode node : graph.getNodes()) 
+        {
+            if (!(node.getInstr() instanceof VCall))
+                continue;
+
+            for (int v : members(liveness.getOutBits(node.getIndex()))) 
+            {
+                if (!node.defines(v))
+                    crossesCall[v] = true;
+            }
+        }
+    }
+
+    private void allocate(int i) 
+    {
+        FlowGraphNode node = graph.getNode(i);
+        long[] in = liveness.getInBits(i);
+        long[] out = liveness.getOutBits(i);
+        int[] useIds = node.getUseIds();
+        int[] defIds = node.getDefIds();
+
+        // Registers of variables not live here are free
+        for (int r = 0; r < registers.length; r++) 
+        {
+            int v = holder[r];
+
+            if (v != -1 && !Liveness.contains(in, v) && !node.defines(v)) 
+            {
+                holder[r] = -1;
+                place[v] = NOWHERE;
+            }
+        }
+
+        while (!loops.isEmpty() && loops.peek()[1] < i)
+            loops.pop();
+
+        // Where control comes from elsewhere than the node above
+        if (i == 0 || jumpsInto.get(i) != null || !fallsThrough[i - 1])
+            enterBlock(i, in);
+
+        int stamp = -(i + 1);
+        for (int u : useIds)
+            referenced[u] = stamp;
+        for (int d : defIds)
+            referenced[d] = stamp;
+
+        // A variable on the stack gets a register back at its use, except as a
+        // call argument, which is read from the stack as easily.
+        if (!(node.getInstr() instanceof VCall)) 
+        {
+            for (int u : useIds) 
+            {
+                if (place[u] != MEMORY)
+                    continue;
+
+                int r = freeRegister(u);
+                if (r == -1) 
+                {
+                    r = victim(i, stamp);
+
+                    if (r != -1)
+                        spill(i, r);
+                }
+
+                if (r != -1) 
+                {
+                    spillCode(before, i).add(SplitAllocationMap.Move.load(registers[r], u));
+                    assign(u, r);
+                    dirty[u] = false;
+                }
+            }
+        }
+
+        // Across a call a variable leaves its $t register: for a free $s
+        // register if there is one, or else for its stack slot, from where it
+        // comes back into a register at its next use. The call itself then
+        // saves no $t registers. This is before the arguments give up their
+        // registers, as they are read after these moves.
+        if (node.getInstr() instanceof VCall) 
+        {
+            for (int r = 0; r < registers.length; r++) 
+            {
+                int v = holder[r];
+
+                if (v == -1 || !registers[r].isCallerSaved() || !Liveness.contains(out, v) || node.defines(v))
+                    continue;
+
+                int s = freeCalleeSaved();
+
+                if (s != -1) 
+                {
+                    spillCode(before, i).add(SplitAllocationMap.Move.move(registers[s], registers[r]));
+                    holder[r] = -1;
+                    assign(v, s);
+                } 
+                else 
+                {
+                    spill(i, r);
+                }
+            }
+        }
+
+        // Where the instruction reads its operands, after any split
+        int[] wasAt = new int[useIds.length];
+        for (int k = 0; k < useIds.length; k++)
+            wasAt[k] = place[useIds[k]];
+
+        List<Integer> here = new ArrayList<>();
+        for (int u : useIds)
+            here.add(u);
+
+        // Uses that die here give up their registers to the definitions
+        int hint = -1;
+        for (int k = 0; k < useIds.length; k++) 
+        {
+            int u = useIds[k];
+
+            if (place[u] >= 0 && !Liveness.contains(out, u) && !node.defines(u)) 
+            {
+                // the destination of a move takes the register of a source dying there
+                if (u == node.getMoveSourceId())
+                    hint = place[u];
+
+                holder[place[u]] = -1;
+                place[u] = NOWHERE;
+            }
+        }
+
+        for (int d : defIds) 
+        {
+            here.add(d);
+
+            if (place[d] >= 0) 
+            {
+                dirty[d] = true;
+                continue;
+            }
+
+            // A variable read from its slot here is written back there too
+            if (place[d] == MEMORY && contains(useIds, d))
+                continue;
+
+            int r = hint != -1 && holder[hint] == -1 ? hint : freeRegister(d);
+
+            // Unless the definition is needed sooner than anything in a register, it goes to the stack
+            if (r == -1) 
+            {
+                r = victim(i, stamp);
+
+                if (r != -1 && distance(d, i + 1) < distance(holder[r], i))
+                    spill(i, r);
+                else
+                    r = -1;
+            }
+
+            if (r != -1) 
+            {
+                assign(d, r);
+                dirty[d] = true;
+            } 
+            else 
+            {
+                toMemory(d);
+            }
+        }
+
+        // What stays in registers across a call, only $s ones after the split above
+        if (node.getInstr() instanceof VCall) 
+        {
+            for (int r = 0; r < registers.length; r++) 
+            {
+                if (holder[r] != -1 && referenced[holder[r]] != stamp)
+                    here.add(holder[r]);
+            }
+        }
+
+        located[i + 1] = locate(here);
+
+        // The uses were where they were before any of them died
+        for (int k = 0; k < useIds.length; k++) 
+        {
+            located[i + 1][2 * k + 1] = wasAt[k] >= 0 ? registers[wasAt[k]].ordinal() : -1;
+        }
+
+        if (target[i] != -1) 
+        {
+            List<Integer> live = members(out);
+            exitPlaces[i] = new int[3 * live.size()];
+
+            for (int k = 0; k < live.size(); k++) 
+            {
+                int v = live.get(k);
+                exitPlaces[i][3 * k] = v;
+                exitPlaces[i][3 * k + 1] = place[v];
+                exitPlaces[i][3 * k + 2] = dirty[v] ? 1 : 0;
+            }
+        }
+    }
+
+    // At the head of a block: whether each register matches its slot, what a
+    // loop starting here needs, and a place for every variable live in.
+    private void enterBlock(int i, long[] in) 
+    {
+        List<Integer> preds = jumpsInto.get(i);
+
+        if (preds != null) 
+        {
+            // Clean only where every way in says so; jumps from below are not known yet
+            for (int r = 0; r < registers.length; r++) 
+            {
+                int v = holder[r];
+
+                if (v == -1 || dirty[v])
+                    continue;
+
+                for (int p : preds) 
+                {
+                    if (p >= i || dirty(p, v)) 
+                    {
+                        dirty[v] = true;
+                        break;
+                    }
+                }
+            }
+
+            int last = -1;
+            for (int p : preds)
+                last = Math.max(last, p);
+
+            if (last >= i) 
+            {
+                enterLoop(i, last);
+                loops.push(new int[] { i, last });
+            }
+        }
+
+        for (int v : members(in)) 
+        {
+            if (place[v] != NOWHERE)
+                continue;
+
+            int r = freeRegister(v);
+
+            if (r != -1) 
+            {
+                assign(v, r);
+                dirty[v] = true;
+            } 
+            else 
+            {
+                toMemory(v);
+            }
+        }
+
+        List<Integer> live = members(in);
+        entryPlaces[i] = new int[2 * live.size()];
+
+        for (int k = 0; k < live.size(); k++) 
+        {
+            entryPlaces[i][2 * k] = live.get(k);
+            entryPlaces[i][2 * k + 1] = place[live.get(k)];
+        }
+    }
+
+    // Whether v is in a register at the jump p that its slot does not match
+    private boolean dirty(int p, int v) 
+    {
+        int[] places = exitPlaces[p];
+
+        for (int k = 0; k < places.length; k += 3) 
+        {
+            if (places[k] == v)
+                return places[k + 1] >= 0 && places[k + 2] != 0;
+        }
+
+        return true;
+    }
+
+    // Before a loop that needs more registers than there are, the variables
+    // live through it but unused in it go to the stack on the way in, rather
+    // than from inside it on every trip round. Registers left over then take
+    // the variables the loop uses from the stack, also on the way in.
+    private void enterLoop(int header, int last) 
+    {
+        int stamp = header + 1;
+        int pressure = 0;
+
+        for (int i = header; i <= last; i++) 
+        {
+            FlowGraphNode node = graph.getNode(i);
+            long[] in = liveness.getInBits(i);
+            int live = 0;
+
+            for (long word : in)
+                live += Long.bitCount(word);
+
+            for (int d : node.getDefIds()) 
+            {
+                if (!Liveness.contains(in, d))
+                    live++;
+
+                referenced[d] = stamp;
+            }
+
+            for (int u : node.getUseIds())
+                referenced[u] = stamp;
+
+            pressure = Math.max(pressure, live);
+        }
+
+        boolean fall = header == 0 || fallsThrough[header - 1];
+
+        List<Integer> idle = new ArrayList<>();
+        for (int r = 0; r < registers.length; r++) 
+        {
+            if (holder[r] != -1 && referenced[holder[r]] != stamp)
+                idle.add(r);
+        }
+
+        idle.sort(Comparator.comparingLong((Integer r) -> distance(holder[r], header)).reversed());
+
+        for (int k = 0; k < idle.size() && k < pressure - registers.length; k++) 
+        {
+            int r = idle.get(k);
+            int v = holder[r];
+
+            if (dirty[v] && fall)
+                spillCode(beforeLabels, header).add(SplitAllocationMap.Move.store(v, registers[r]));
+
+            toMemory(v);
+        }
+
+        List<Integer> wanted = new ArrayList<>();
+        for (int v : members(liveness.getInBits(header))) 
+        {
+            if (place[v] == MEMORY && referenced[v] == stamp)
+                wanted.add(v);
+        }
+
+        wanted.sort(Comparator.comparingInt(v -> nextUse(v, header)));
+
+        for (int v : wanted) 
+        {
+            int r = freeRegister(v);
+
+            if (r == -1)
+                break;
+
+            if (fall)
+                spillCode(beforeLabels, header).add(SplitAllocationMap.Move.load(registers[r], v));
+
+            // the jump back may not leave the slot up to date
+            assign(v, r);
+            dirty[v] = true;
+        }
+    }
+
+    // The register whose variable, not referenced by the node being allocated,
+    // is next used farthest away, preferring one that needs no store
+    private int victim(int i, int stamp) 
+    {
+        int best = -1;
+        long bestDistance = -1;
+
+        for (int r = 0; r < registers.length; r++) 
+        {
+            int v = holder[r];
+
+            if (v == -1 || referenced[v] == stamp)
+                continue;
+
+            long d = distance(v, i);
+
+            if (d > bestDistance || (d == bestDistance && !clean(holder[best]) && clean(v))) 
+            {
+                best = r;
+                bestDistance = d;
+            }
+        }
+
+        return best;
+    }
+
+    // Whether v can leave its register without a store
+    private boolean clean(int v) 
+    {
+        return !dirty[v] || constants[v] != null;
+    }
+
+    // Move the variable in register r to its slot, before node i
+    private void spill(int i, int r) 
+    {
+        int v = holder[r];
+
+        if (dirty[v])
+            spillCode(before, i).add(SplitAllocationMap.Move.store(v, registers[r]));
+
+        toMemory(v);
+    }
+
+    // Nodes from i to the next use of v, round the back edge of the innermost
+    // loop if v is used there again before anywhere after the loop
+    private long distance(int v, int i) 
+    {
+        int next = nextUse(v, i);
+        long d = next == -1 ? Long.MAX_VALUE : next - i;
+        int[] loop = loops.peek();
+
+        if (loop != null && (next == -1 || next > loop[1]) && Liveness.contains(liveness.getInBits(loop[0]), v)) 
+        {
+            int first = nextUse(v, loop[0]);
+
+            if (first != -1 && first < i)
+                d = Math.min(d, loop[1] - i + 1 + first - loop[0]);
+        }
+
+        return d;
+    }
+
+    // First use of v at or after node i, -1 for none
+    private int nextUse(int v, int i) 
+    {
+        int[] at = uses[v];
+        int lo = 0;
+        int hi = at.length;
+
+        while (lo < hi) 
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (at[mid] < i)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo < at.length ? at[lo] : -1;
+    }
+
+    // The register v was last in if that is free, so that a variable defined
+    // again, or back from the stack, lands where the code around expects it;
+    // but first an $s register for a variable live across a call, which is
+    // saved once per function rather than around every call.
+    private int freeRegister(int v) 
+    {
+        boolean atHome = home[v] != -1 && holder[home[v]] == -1;
+
+        if (atHome && (!crossesCall[v] || registers[home[v]].isCalleeSaved()))
+            return home[v];
+
+        if (crossesCall[v] && freeCalleeSaved() != -1)
+            return freeCalleeSaved();
+
+        if (atHome)
+            return home[v];
+
+        for (int r = 0; r < registers.length; r++) 
+        {
+            if (holder[r] == -1)
+                return r;
+        }
+
+        return -1;
+    }
+
+    private int freeCalleeSaved() 
+    {
+        for (int r = 0; r < registers.length; r++) 
+        {
+            if (holder[r] == -1 && registers[r].isCalleeSaved())
+                return r;
+        }
+
+        return -1;
+    }
+
+    private void assign(int v, int r) 
+    {
+        place[v] = r;
+        holder[r] = v;
+        home[v] = r;
+
+        if (!used.contains(registers[r]))
+            used.add(registers[r]);
+    }
+
+    private void toMemory(int v) 
+    {
+        if (place[v] >= 0)
+            holder[place[v]] = -1;
+
+        place[v] = MEMORY;
+
+        if (slot[v] == -1 && constants[v] == null) 
+        {
+            slot[v] = stack.size();
+            stack.add(v);
+        }
+    }
+
+    private List<SplitAllocationMap.Move> spillCode(Map<Integer, List<SplitAllocationMap.Move>> code, int i) 
+    {
+        return code.computeIfAbsent(i, k -> new ArrayList<>());
+    }
+
+    private int[] locate(List<Integer> vars) 
+    {
+        int[] pairs = new int[2 * vars.size()];
+
+        for (int k = 0; k < vars.size(); k++) 
+        {
+            int v = vars.get(k);
+            pairs[2 * k] = v;
+            pairs[2 * k + 1] = place[v] >= 0 ? registers[place[v]].ordinal() : -1;
+        }
+
+        return pairs;
+    }
+
+    private static List<Integer> members(long[] bits) 
+    {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int w = 0; w < bits.length; w++) 
+        {
+            for (long word = bits[w]; word != 0; word &= word - 1)
+                ids.add((w << 6) + Long.numberOfTrailingZeros(word));
+        }
+
+        return ids;
+    }
+
+    private static boolean contains(int[] ids, int id) 
+    {
+        for (int i : ids) 
+        {
+            if (i == id)
+                return true;
+        }
+
+        return false;
+    }
+
+    // Moves on the edge from the jump p to t, from where the variables live
+    // there are at p to where t expects them: stores first, while every
+    // register still holds what it did at p, then the register to register
+    // moves in an order that overwrites no pending source ($v0 breaking
+    // cycles), then loads.
+    private void resolve(int p, int t) 
+    {
+        int[] exit = exitPlaces[p];
+        int[] entry = entryPlaces[t];
+        Map<Integer, Integer> at = new HashMap<>();
+
+        for (int k = 0; k < exit.length; k += 3)
+            at.put(exit[k], k);
+
+        List<SplitAllocationMap.Move> moves = new ArrayList<>();
+        List<SplitAllocationMap.Move> loads = new ArrayList<>();
+        List<Register[]> pending = new ArrayList<>();
+
+        for (int k = 0; k < entry.length; k += 2) 
+        {
+            int v = entry[k];
+            int to = entry[k + 1];
+            Integer e = at.get(v);
+
+            if (e == null || exit[e + 1] == to)
+                continue;
+
+            int from = exit[e + 1];
+
+            if (to == MEMORY) 
+            {
+                if (from >= 0 && exit[e + 2] != 0)
+                    moves.add(SplitAllocationMap.Move.store(v, registers[from]));
+            } 
+            else if (from < 0) 
+            {
+                loads.add(SplitAllocationMap.Move.load(registers[to], v));
+            } 
+            else 
+            {
+                pending.add(new Register[] { registers[to], registers[from] });
+            }
+        }
+
+        while (!pending.isEmpty()) 
+        {
+            boolean progress = false;
+
+            for (Iterator<Register[]> iter = pending.iterator(); iter.hasNext();) 
+            {
+                Register[] m = iter.next();
+                boolean blocked = false;
+
+                for (Register[] other : pending) 
+                {
+                    if (other != m && other[1] == m[0])
+                        blocked = true;
+                }
+
+                if (!blocked) 
+                {
+                    moves.add(SplitAllocationMap.Move.move(m[0], m[1]));
+                    iter.remove();
+                    progress = true;
+                }
+            }
+
+            if (!progress) 
+            {
+                Register src = pending.get(0)[1];
+                moves.add(SplitAllocationMap.Move.move(Register.v0, src));
+
+                for (Register[] m : pending) 
+                {
+                    if (m[1] == src)
+                        m[1] = Register.v0;
+                }
+            }
+        }
+
+        moves.addAll(loads);
+
+        if (!moves.isEmpty())
+            onJump.put(p, moves);
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.*;
+
+class CFG_Node 
+{
+    public int index = 0;
+    public SortedSet<String> in;
+    public SortedSet<String> out;
+    public SortedSet<String> def;
+    public SortedSet<String> use;
+    public SortedSet<String> inPrime;
+    public SortedSet<String> outPrime;
+    public SortedSet<String> active;
+    public List<Integer> succ;
+    public String moveSource = null;
+
+    //def, use and moveSource as symbol ids, filled in once the CFG is complete
+    public int[] defIds;
+    public int[] useIds;
+    public int moveSourceId = -1;
+
+    public CFG_Node(int i)
+    {
+        index = i;
+        in = new TreeSet<>();
+        out = new TreeSet<>();
+        def = new TreeSet<>();
+        use = new TreeSet<>();
+        inPrime = new TreeSet<>();
+        outPrime = new TreeSet<>();
+        active = new TreeSet<>();
+        succ = new ArrayList<>();
+    }
+
+    public void add_singleSucc(int i)
+    {
+        if (!succ.contains(i+1))
+            succ.add(i+1);
+    }
+
+    public void print()
+    {
+        System.out.println("in = " + in);
+        System.out.println("out = " + out);
+        System.out.println("def = " + def);
+        System.out.println("use = " + use);
+        System.out.println("active = " + active);
+    }
+}
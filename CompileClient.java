@@ -0,0 +1,122 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Thin client for CompileDaemon. It needs nothing but the JDK on its class
+// path, so it starts quickly; the translators themselves stay in the daemon.
+//
+// Usage: java CompileClient SOCKET TOOL [--flag ...] [-d DIR] [FILE ...]
+//        java CompileClient SOCKET STOP
+//
+// With no files the program is read from stdin and its translation written to
+// stdout, as with "java TOOL < in > out". Otherwise every FILE is translated
+// over one connection into FILE with its extension replaced by .vaporm, in
+// DIR if given. The daemon's stderr is copied to stderr; the exit status is 1
+// if any translation failed.
+public class CompileClient
+{
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("usage: java CompileClient SOCKET TOOL [--flag ...] [-d DIR] [FILE ...]");
+            System.exit(2);
+        }
+
+        String tool = args[1];
+        List<String> flags = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        Path directory = null;
+
+        for (int i = 2; i < args.length; i++)
+        {
+            if (args[i].equals("-d") && i + 1 < args.length)
+                directory = Paths.get(args[++i]);
+            else if (args[i].startsWith("--"))
+                flags.add(args[i]);
+            else
+                files.add(args[i]);
+        }
+
+        boolean ok = true;
+
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0])))
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            if (tool.equals("STOP"))
+            {
+                out.writeUTF(tool);
+                out.flush();
+                ok = receive(in, System.out);
+            }
+            else if (files.isEmpty())
+            {
+                send(out, tool, flags, "", System.in.readAllBytes(), "");
+                ok = receive(in, System.out);
+            }
+            else
+            {
+                for (String file : files)
+                {
+                    Path input = Paths.get(file).toAbsolutePath();
+                    send(out, tool, flags, input.toString(), null, outputPath(input, directory).toString());
+                    ok &= receive(in, System.out);
+                }
+            }
+        }
+
+        System.out.flush();
+
+        if (!ok)
+            System.exit(1);
+    }
+
+    //x.vapor becomes x.vaporm, next to the input unless a directory is given
+    static Path outputPath(Path input, Path directory)
+    {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + ".vaporm";
+
+        return (directory != null ? directory.toAbsolutePath() : input.getParent()).resolve(name);
+    }
+
+    static void send(DataOutputStream out, String tool, List<String> flags, String inputPath, byte[] input, String outputPath) throws IOException
+    {
+        out.writeUTF(tool);
+        out.writeInt(flags.size());
+        for (String flag : flags)
+            out.writeUTF(flag);
+
+        out.writeUTF(inputPath);
+        if (input != null)
+        {
+            out.writeInt(input.length);
+            out.write(input);
+        }
+
+        out.writeUTF(outputPath);
+        out.flush();
+    }
+
+    //copy one response's stderr and output, returning whether it succeeded
+    static boolean receive(DataInputStream in, OutputStream output) throws IOException
+    {
+        int status = in.readInt();
+
+        byte[] error = new byte[in.readInt()];
+        in.readFully(error);
+        System.err.write(error);
+        System.err.flush();
+
+        byte[] code = new byte[in.readInt()];
+        in.readFully(code);
+        output.write(code);
+
+        return status == 0;
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Keeps V2VM and VM resident behind a Unix domain socket, so a build that
+// translates many programs pays for JVM start-up, class loading and JIT
+// warm-up once instead of once per file. CompileClient is the thin client.
+//
+// Usage: java CompileDaemon SOCKET [--threads=N]
+//
+// A connection carries any number of requests, each answered before the next
+// is read. All integers are big-endian and strings are DataOutput UTF:
+//
+//   request   tool (V2VM, VM or STOP), flag count, flags,
+//             input path, or "" followed by a length and the input bytes,
+//             output path, or "" to have the output sent back
+//   response  status (0 ok, 1 failed), length and bytes of stderr,
+//             length and bytes of the output ("" output path only)
+//
+// Paths are opened by the daemon, so clients send them absolute. STOP closes
+// the socket and ends the daemon once running requests are answered.
+public class CompileDaemon
+{
+    static final int OK = 0;
+    static final int FAILED = 1;
+
+    private final ServerSocketChannel server;
+    private final ExecutorService pool;
+    private final Path socket;
+
+    public CompileDaemon(Path socket, int threads) throws IOException
+    {
+        this.socket = socket;
+
+        //a daemon that died without cleaning up leaves its socket file behind
+        Files.deleteIfExists(socket);
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("usage: java CompileDaemon SOCKET [--threads=N]");
+            System.exit(2);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 1; i < args.length; i++)
+        {
+            if (args[i].startsWith("--threads="))
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+
+        new CompileDaemon(Paths.get(args[0]), threads).serve();
+    }
+
+    public void serve() throws IOException
+    {
+        try
+        {
+            while (true)
+            {
+                SocketChannel client;
+
+                try
+                {
+                    client = server.accept();
+                }
+                catch (ClosedChannelException e)
+                {
+                    break;
+                }
+
+                pool.execute(() -> session(client));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    //answer requests on one connection until the client hangs up
+    private void session(SocketChannel client)
+    {
+        try (SocketChannel channel = client)
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            while (true)
+            {
+                String tool;
+
+                try
+                {
+                    tool = in.readUTF();
+                }
+                catch (EOFException e)
+                {
+                    return;
+                }
+
+                if (tool.equals("STOP"))
+                {
+                    respond(out, OK, new byte[0], new byte[0]);
+                    server.close();
+                    return;
+                }
+
+                handle(tool, in, out);
+            }
+        }
+        catch (IOException e)
+        {
+            //the client went away mid-request; nothing is left to answer
+        }
+    }
+
+    private void handle(String tool, DataInputStream in, DataOutputStream out) throws IOException
+    {
+        String[] flags = new String[in.readInt()];
+        for (int i = 0; i < flags.length; i++)
+            flags[i] = in.readUTF();
+
+        String inputPath = in.readUTF();
+        byte[] input = null;
+
+        if (inputPath.isEmpty())
+        {
+            input = new byte[in.readInt()];
+            in.readFully(input);
+        }
+
+        String outputPath = in.readUTF();
+
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(error, true);
+        boolean ok;
+
+        try (InputStream source = input != null ? new ByteArrayInputStream(input) : new BufferedInputStream(new FileInputStream(inputPath));
+             OutputStream target = outputPath.isEmpty() ? output : new BufferedOutputStream(new FileOutputStream(outputPath)))
+        {
+            ok = compile(tool, flags, source, target, err);
+        }
+        catch (FileNotFoundException e)
+        {
+            err.println(e.getMessage());
+            ok = false;
+        }
+        catch (Throwable e)
+        {
+            //a failing request must not take the daemon down with it
+            e.printStackTrace(err);
+            ok = false;
+        }
+
+        respond(out, ok ? OK : FAILED, error.toByteArray(), output.toByteArray());
+    }
+
+    static boolean compile(String tool, String[] flags, InputStream in, OutputStream out, PrintStream err) throws Exception
+    {
+        switch (tool)
+        {
+            case "V2VM":
+                return V2VM.compile(in, out, err, flags);
+
+            case "VM":
+            {
+                PrintStream stream = new PrintStream(out, false);
+                boolean ok = VM.compile(in, stream, err, flags);
+                stream.flush();
+                return ok;
+            }
+
+            default:
+                err.println("unknown tool " + tool);
+                return false;
+        }
+    }
+
+    private static void respond(DataOutputStream out, int status, byte[] error, byte[] output) throws IOException
+    {
+        out.writeInt(status);
+        out.writeInt(error.length);
+        out.write(error);
+        out.writeInt(output.length);
+        out.write(output);
+        out.flush();
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+// What --stats reports for one run of V2VM or VM: wall time and bytes
+// allocated by the parser, and by each phase of every function, with the
+// liveness iterations, intervals, spills and emitted lines of the function.
+// Bytes come from the compiling thread's allocation counter, so the figures
+// stay right when functions are compiled in parallel.
+//
+// --stats prints a table on stderr; --stats=FILE writes the same as JSON.
+public class CompileStats
+{
+    static final int CFG = 0;
+    static final int LIVENESS = 1;
+    static final int INTERVALS = 2;
+    static final int ALLOCATION = 3;
+    static final int EMISSION = 4;
+    static final String[] PHASES = { "cfg", "liveness", "intervals", "allocation", "emission" };
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // One function. IGNORED stands in when --stats is off, so the compilers
+    // can mark their phases unconditionally.
+    public static class Function
+    {
+        static final Function IGNORED = new Function(null);
+
+        final String name;
+        final long[] nanos = new long[PHASES.length];
+        final long[] bytes = new long[PHASES.length];
+        boolean cached;
+        int livenessIterations;
+        int intervals;
+        int spills;
+        int lines;
+
+        private long lastNanos;
+        private long lastBytes;
+
+        Function(String name)
+        {
+            this.name = name;
+        }
+
+        // start timing the first phase
+        public void begin()
+        {
+            if (this == IGNORED)
+                return;
+
+            lastNanos = System.nanoTime();
+            lastBytes = THREADS.getCurrentThreadAllocatedBytes();
+        }
+
+        // charge everything since the last mark to phase
+        public void end(int phase)
+        {
+            if (this == IGNORED)
+                return;
+
+            long now = System.nanoTime();
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+
+            nanos[phase] += now - lastNanos;
+            bytes[phase] += allocated - lastBytes;
+            lastNanos = now;
+            lastBytes = allocated;
+        }
+
+        public void setCached(boolean cached) { this.cached = cached; }
+        public void setLivenessIterations(int iterations) { livenessIterations = iterations; }
+        public void setIntervals(int count) { intervals = count; }
+        public void setSpills(int count) { spills = count; }
+        public void setLines(int count) { lines = count; }
+    }
+
+    private final String tool;
+    private long parseNanos;
+    private long parseBytes;
+    private long startNanos;
+    private long startBytes;
+    private Function[] functions = new Function[0];
+
+    public CompileStats(String tool)
+    {
+        this.tool = tool;
+    }
+
+    public void beginParse()
+    {
+        startNanos = System.nanoTime();
+        startBytes = THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // the parse is over and the program has this many functions
+    public void endParse(int functionCount)
+    {
+        parseNanos = System.nanoTime() - startNanos;
+        parseBytes = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+        functions = new Function[functionCount];
+    }
+
+    // the record of the index-th function, which may be on any thread
+    public Function function(int index, String name)
+    {
+        Function function = new Function(name);
+        functions[index] = function;
+
+        return function;
+    }
+
+    // the record to hand a compiler, or IGNORED when there are no stats
+    public static Function function(CompileStats stats, int index, String name)
+    {
+        return stats == null ? Function.IGNORED : stats.function(index, name);
+    }
+
+    // --stats goes to err, --stats=FILE to FILE
+    public void report(String file, PrintStream err) throws IOException
+    {
+        if (file == null)
+        {
+            printTable(err);
+            return;
+        }
+
+        try (PrintStream json = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false, "UTF-8"))
+        {
+            printJson(json);
+        }
+    }
+
+    public void printTable(PrintStream out)
+    {
+        out.println(String.format("%s: parse %.0f us, %d KB", tool, parseNanos / 1e3, parseBytes >> 10));
+
+        StringBuilder header = new StringBuilder(String.format("%-28s", "function"));
+        for (String phase : PHASES)
+            header.append(String.format(" %12s %8s", phase + " us", "KB"));
+        header.append(String.format(" %6s %9s %6s %6s", "iters", "intervals", "spills", "lines"));
+        out.println(header);
+
+        long[] totalNanos = new long[PHASES.length];
+        long[] totalBytes = new long[PHASES.length];
+
+        for (Function function : functions)
+        {
+            // the functions after one that failed were never compiled
+            if (function == null)
+                continue;
+
+            StringBuilder row = new StringBuilder(String.format("%-28s", function.name + (function.cached ? " (cached)" : "")));
+
+            for (int p = 0; p < PHASES.length; p++)
+            {
+                row.append(String.format(" %12.0f %8d", function.nanos[p] / 1e3, function.bytes[p] >> 10));
+                totalNanos[p] += function.nanos[p];
+                totalBytes[p] += function.bytes[p];
+            }
+
+            row.append(String.format(" %6d %9d %6d %6d", function.livenessIterations, function.intervals, function.spills, function.lines));
+            out.println(row);
+        }
+
+        StringBuilder total = new StringBuilder(String.format("%-28s", "total"));
+        for (int p = 0; p < PHASES.length; p++)
+            total.append(String.format(" %12.0f %8d", totalNanos[p] / 1e3, totalBytes[p] >> 10));
+        out.println(total);
+    }
+
+    public void printJson(PrintStream out)
+    {
+        out.println("{");
+        out.println("  \"tool\": " + quote(tool) + ",");
+        out.println("  \"parse\": { \"nanos\": " + parseNanos + ", \"bytes\": " + parseBytes + " },");
+        out.println("  \"functions\": [");
+
+        String separator = "";
+
+        for (Function function : functions)
+        {
+            if (function == null)
+                continue;
+
+            StringBuilder phases = new StringBuilder();
+            for (int p = 0; p < PHASES.length; p++)
+                phases.append(p == 0 ? "" : ", ").append(quote(PHASES[p]))
+                      .append(": { \"nanos\": ").append(function.nanos[p]).append(", \"bytes\": ").append(function.bytes[p]).append(" }");
+
+            out.print(separator);
+            out.print("    { \"name\": " + quote(function.name) + ", \"cached\": " + function.cached
+                + ", \"phases\": { " + phases + " }, \"livenessIterations\": " + function.livenessIterations
+                + ", \"intervals\": " + function.intervals + ", \"spills\": " + function.spills + ", \"lines\": " + function.lines + " }");
+            separator = ",\n";
+        }
+
+        out.println();
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static String quote(String text)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : text.toCharArray())
+        {
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,230 @@
+package ControlFlowGraph;
+import java.util.*;
+
+/**
+ * The basic blocks of a control flow graph, given as successor lists
+ * over nodes 0..n-1.  A block is a maximal chain of nodes in which every
+ * node but the last has the next as its only successor, and every node
+ * but the first has the previous as its only predecessor.  A node begins
+ * a block when it is the entry, has other than one predecessor, or its
+ * predecessor has other than one successor.
+ *
+ * Liveness is solved over the blocks (ALGORITHM 10.4 with each block's
+ * upward-exposed uses and definitions as its use and def, sweeping the
+ * blocks backward and revisiting only the predecessors of a block whose
+ * in-set grew), and then spread to the nodes by one backward sweep
+ * through each block.  The per-node result is the same as solving over
+ * the nodes directly.
+ */
+
+public class BasicBlocks
+{
+    private final int[][] succ;
+    private final int[] block;      // block of each node
+    private final int[] first;      // block b is order[first[b]] .. order[first[b + 1] - 1]
+    private final int[] order;      // nodes, block after block
+    private final int[][] blockSucc;
+    private final int[][] blockPred;
+
+    /**
+    * Counters of the last liveness computation: sweeps over the blocks,
+    * and blocks visited over all sweeps.
+    */
+    public int iterations;
+    public int visits;
+
+    public BasicBlocks(int[][] succ)
+    {
+        int n = succ.length;
+        this.succ = succ;
+
+        int[] predCount = new int[n];
+        int[] onlyPred = new int[n];
+        for (int v = 0; v < n; v++)
+        {
+            for (int t : succ[v])
+            {
+                predCount[t]++;
+                onlyPred[t] = v;
+            }
+        }
+
+        block = new int[n];
+        Arrays.fill(block, -1);
+        order = new int[n];
+        int[] starts = new int[n + 1];
+        int count = 0;
+        int placed = 0;
+
+        // leaders first, in node order; then whatever only cycles of
+        // single-successor nodes reach, each from its lowest node
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int v = 0; v < n; v++)
+            {
+                if (block[v] != -1 || (pass == 0 && !isLeader(v, predCount, onlyPred)))
+                    continue;
+
+                starts[count] = placed;
+
+                for (int w = v; ; w = succ[w][0])
+                {
+                    block[w] = count;
+                    order[placed++] = w;
+
+                    if (succ[w].length != 1)
+                        break;
+
+                    int next = succ[w][0];
+                    if (block[next] != -1 || predCount[next] != 1)
+                        break;
+                }
+
+                count++;
+            }
+        }
+
+        first = Arrays.copyOf(starts, count + 1);
+        first[count] = placed;
+
+        blockSucc = new int[count][];
+        int[] blockPredCount = new int[count];
+        for (int b = 0; b < count; b++)
+        {
+            int last = order[first[b + 1] - 1];
+            blockSucc[b] = new int[succ[last].length];
+
+            for (int i = 0; i < succ[last].length; i++)
+            {
+                blockSucc[b][i] = block[succ[last][i]];
+                blockPredCount[blockSucc[b][i]]++;
+            }
+        }
+
+        blockPred = new int[count][];
+        for (int b = 0; b < count; b++)
+            blockPred[b] = new int[blockPredCount[b]];
+
+        for (int b = 0; b < count; b++)
+            for (int s : blockSucc[b])
+                blockPred[s][--blockPredCount[s]] = b;
+    }
+
+    private boolean isLeader(int v, int[] predCount, int[] onlyPred)
+    {
+        return v == 0 || predCount[v] != 1 || succ[onlyPred[v]].length != 1;
+    }
+
+    public int count() { return blockSucc.length; }
+    public int blockOf(int node) { return block[node]; }
+
+    /**
+    * Fill in[n] and out[n] of every node from use[n] and def[n], all bit
+    * sets of the same number of words.  in and out must start empty.
+    */
+    public void liveness(long[][] use, long[][] def, long[][] in, long[][] out)
+    {
+        int count = count();
+        int words = use.length == 0 ? 0 : use[0].length;
+
+        // the sets of block b are words b * words .. (b + 1) * words - 1
+        long[] blockUse = new long[count * words];
+        long[] blockDef = new long[count * words];
+        long[] blockIn = new long[count * words];
+
+        // use[b] ← uses not preceded by a definition in b, def[b] ← all definitions in b
+        for (int b = 0; b < count; b++)
+        {
+            int base = b * words;
+
+            for (int i = first[b + 1] - 1; i >= first[b]; i--)
+            {
+                long[] use_n = use[order[i]];
+                long[] def_n = def[order[i]];
+
+                for (int w = 0; w < words; w++)
+                {
+                    blockUse[base + w] = use_n[w] | (blockUse[base + w] & ~def_n[w]);
+                    blockDef[base + w] |= def_n[w];
+                }
+            }
+        }
+
+        // visiting blocks in reverse order since liveness flows backward;
+        // the sets only grow from empty, so both are updated in place
+        boolean[] queued = new boolean[count];
+        Arrays.fill(queued, true);
+        int pending = count;
+        iterations = 0;
+        visits = 0;
+
+        while (pending > 0)
+        {
+            iterations++;
+
+            for (int b = count - 1; b >= 0; b--)
+            {
+                if (!queued[b])
+                    continue;
+
+                queued[b] = false;
+                pending--;
+                visits++;
+
+                int base = b * words;
+                boolean changed = false;
+
+                for (int w = 0; w < words; w++)
+                {
+                    //out[b] ← (U s E succ[b]) in[s]
+                    long o = 0;
+                    for (int s : blockSucc[b])
+                        o |= blockIn[s * words + w];
+
+                    //in[b] ← use[b] ∪ (out[b] − def[b])
+                    long i = blockUse[base + w] | (o & ~blockDef[base + w]);
+
+                    if (i != blockIn[base + w])
+                    {
+                        blockIn[base + w] = i;
+                        changed = true;
+                    }
+                }
+
+                if (changed)
+                {
+                    for (int p : blockPred[b])
+                    {
+                        if (!queued[p])
+                        {
+                            queued[p] = true;
+                            pending++;
+                        }
+                    }
+                }
+            }
+        }
+
+        // back to the nodes: the last node of a block goes out as the block
+        // does, every other node goes out as the next one comes in
+        for (int b = 0; b < count; b++)
+        {
+            int last = order[first[b + 1] - 1];
+
+            for (int s : blockSucc[b])
+                for (int w = 0; w < words; w++)
+                    out[last][w] |= blockIn[s * words + w];
+
+            for (int i = first[b + 1] - 1; i >= first[b]; i--)
+            {
+                int n = order[i];
+
+                if (n != last)
+                    System.arraycopy(in[order[i + 1]], 0, out[n], 0, words);
+
+                for (int w = 0; w < words; w++)
+                    in[n][w] = use[n][w] | (out[n][w] & ~def[n][w]);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package ControlFlowGraph;
+import java.util.*;
+
+/**
+ * Loop nesting depth of the nodes of a control flow graph, given as
+ * successor lists over nodes 0..n-1.  An edge n &rarr; h is a
+ * <strong>back edge</strong> when h dominates n; its natural loop is h
+ * together with every node that reaches n without passing through h.
+ * Back edges into the same header make up a single loop.  Nodes not
+ * reachable from the entry have depth 0.
+ */
+
+public class LoopNest
+{
+    private final int[][] succ;
+    private final int[][] pred;
+    private final int entry;
+    private final int[] rpo;      // position in reverse postorder, -1 if unreachable
+    private final int[] idom;
+    private final int[] depth;
+
+    public LoopNest(int[][] succ, int entry)
+    {
+        int n = succ.length;
+        this.succ = succ;
+        this.entry = entry;
+
+        int[] predCount = new int[n];
+        for (int[] s : succ)
+            for (int t : s)
+                predCount[t]++;
+
+        pred = new int[n][];
+        for (int v = 0; v < n; v++)
+            pred[v] = new int[predCount[v]];
+
+        for (int v = 0; v < n; v++)
+            for (int t : succ[v])
+                pred[t][--predCount[t]] = v;
+
+        rpo = new int[n];
+        idom = new int[n];
+        depth = new int[n];
+        Arrays.fill(rpo, -1);
+        Arrays.fill(idom, -1);
+
+        if (n == 0)
+            return;
+
+        int[] order = reversePostorder();
+        dominators(order);
+        loops(order);
+    }
+
+    /**
+    * Convenience: the depth of every node.
+    */
+    public static int[] depths(int[][] succ, int entry)
+    {
+        return new LoopNest(succ, entry).depth;
+    }
+
+    /**
+    * Estimated execution frequency of a node at the given depth,
+    * 10<sup>depth</sup>, capped so that sums stay well inside a long.
+    */
+    public static long frequency(int depth)
+    {
+        long f = 1;
+
+        for (int i = 0; i < Math.min(depth, 9); i++)
+            f *= 10;
+
+        return f;
+    }
+
+    public int depth(int node) { return depth[node]; }
+
+    public boolean dominates(int h, int n)
+    {
+        if (rpo[h] < 0 || rpo[n] < 0)
+            return false;
+
+        while (n != h && n != entry)
+            n = idom[n];
+
+        return n == h;
+    }
+
+    private int[] reversePostorder()
+    {
+        int n = succ.length;
+        int[] post = new int[n];
+        int count = 0;
+
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        boolean[] seen = new boolean[n];
+        int sp = 0;
+
+        stack[sp++] = entry;
+        seen[entry] = true;
+
+        while (sp > 0)
+        {
+            int v = stack[sp - 1];
+
+            if (next[v] < succ[v].length)
+            {
+                int s = succ[v][next[v]++];
+
+                if (!seen[s])
+                {
+                    seen[s] = true;
+                    stack[sp++] = s;
+                }
+            }
+            else
+            {
+                post[count++] = v;
+                sp--;
+            }
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = post[count - 1 - i];
+            rpo[order[i]] = i;
+        }
+
+        return order;
+    }
+
+    // Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm"
+    private void dominators(int[] order)
+    {
+        idom[entry] = entry;
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+
+            for (int v : order)
+            {
+                if (v == entry)
+                    continue;
+
+                int d = -1;
+                for (int p : pred[v])
+                {
+                    if (idom[p] == -1)
+                        continue;
+
+                    d = d == -1 ? p : intersect(p, d);
+                }
+
+                if (idom[v] != d)
+                {
+                    idom[v] = d;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b)
+    {
+        while (a != b)
+        {
+            while (rpo[a] > rpo[b])
+                a = idom[a];
+
+            while (rpo[b] > rpo[a])
+                b = idom[b];
+        }
+
+        return a;
+    }
+
+    private void loops(int[] order)
+    {
+        Map<Integer, BitSet> bodies = new LinkedHashMap<>();
+
+        for (int n : order)
+        {
+            for (int h : succ[n])
+            {
+                if (!dominates(h, n))
+                    continue;
+
+                BitSet body = bodies.computeIfAbsent(h, k -> new BitSet());
+                body.set(h);
+
+                // walk backwards from the latch until the header
+                Deque<Integer> work = new ArrayDeque<>();
+                if (!body.get(n))
+                {
+                    body.set(n);
+                    work.push(n);
+                }
+
+                while (!work.isEmpty())
+                {
+                    int m = work.pop();
+
+                    for (int p : pred[m])
+                    {
+                        if (rpo[p] >= 0 && !body.get(p))
+                        {
+                            body.set(p);
+                            work.push(p);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (BitSet body : bodies.values())
+            for (int v = body.nextSetBit(0); v >= 0; v = body.nextSetBit(v + 1))
+                depth[v]++;
+    }
+}
@@ -0,0 +1,450 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+class FlowGraph 
+{
+    private List<FlowGraphNode> nodes = new ArrayList<>();
+    private Map<FlowGraphNode, Set<FlowGraphNode>> edges = new HashMap<>();
+
+    // Counters of the last liveness computation; blocks is 0 unless it was solved by blocks
+    private int livenessIterations;
+    private int livenessVisits;
+    private int livenessBlocks;
+    
+    private List<FlowGraphNode> moves = new ArrayList<>();
+
+    // Variable names as dense ids, given out by numberVariables
+    private final Symbol.SymbolTable symbols = new Symbol.SymbolTable();
+    private int parameters;         // ids below this are parameters
+
+    public FlowGraphNode newNode(VInstr instr, Set<String> def, Set<String> use) 
+    {
+        FlowGraphNode gn = new FlowGraphNode(this, nodes.size(), instr, def, use);
+        nodes.add(gn);
+
+        if (gn.isMove())
+            moves.add(gn);
+            
+        return gn;
+    }
+
+    public List<FlowGraphNode> getMoves() 
+    {
+        return new ArrayList<>(moves);
+    }
+
+    public Symbol.SymbolTable getSymbols() 
+    {
+        return symbols;
+    }
+
+    // Once all nodes are in: the parameters the function mentions first,
+    // then every variable in order of appearance, definitions before uses.
+    public void numberVariables(VVarRef.Local[] params) 
+    {
+        Set<String> mentioned = new HashSet<>();
+
+        for (FlowGraphNode n : nodes) 
+        {
+            mentioned.addAll(n.getDef());
+            mentioned.addAll(n.getUse());
+        }
+
+        for (VVarRef.Local param : params) 
+        {
+            if (mentioned.contains(param.ident))
+                symbols.intern(param.ident);
+        }
+
+        parameters = symbols.size();
+
+        for (FlowGraphNode n : nodes)
+            n.number(symbols);
+    }
+
+    // Loop nesting depth of every node, the first node being the entry
+    public int[] getLoopDepths() 
+    {
+        int[][] succ = new int[nodes.size()][];
+
+        for (FlowGraphNode n : nodes)
+            succ[n.getIndex()] = n.getSucc().stream().mapToInt(FlowGraphNode::getIndex).toArray();
+
+        return ControlFlowGraph.LoopNest.depths(succ, 0);
+    }
+
+    // The literal or label of each variable by id whose only definition assigns
+    // it one, null for the others and for parameters. Such a variable never needs
+    // a stack slot, as it can be assigned again wherever it has no register.
+    public String[] getConstants() 
+    {
+        String[] constants = new String[symbols.size()];
+        boolean[] other = new boolean[symbols.size()];
+
+        for (int v = 0; v < parameters; v++)
+            other[v] = true;
+
+        for (FlowGraphNode n : nodes) 
+        {
+            VInstr instr = n.getInstr();
+
+            for (int id : n.getDefIds()) 
+            {
+                if (constants[id] == null && instr instanceof VAssign && ((VAssign) instr).source instanceof VOperand.Static)
+                    constants[id] = ((VAssign) instr).source.toString();
+                else
+                    other[id] = true;
+            }
+        }
+
+        for (int v = 0; v < constants.length; v++) 
+        {
+            if (other[v])
+                constants[v] = null;
+        }
+
+        return constants;
+    }
+
+    public Map<String, String> getConstantsByName() 
+    {
+        String[] constants = getConstants();
+        Map<String, String> named = new HashMap<>();
+
+        for (int v = 0; v < constants.length; v++) 
+        {
+            if (constants[v] != null)
+                named.put(symbols.name(v), constants[v]);
+        }
+
+        return named;
+    }
+
+    // Spill weight of each variable by id: (uses + defs) * 10^depth, summed over
+    // its nodes, and 0 for a constant, which costs nothing to spill
+    public long[] getSpillWeights() 
+    {
+        long[] weights = new long[symbols.size()];
+        int[] depth = getLoopDepths();
+        String[] constants = getConstants();
+
+        for (FlowGraphNode n : nodes) 
+        {
+            long frequency = ControlFlowGraph.LoopNest.frequency(depth[n.getIndex()]);
+
+            for (int id : n.getDefIds())
+                weights[id] += frequency;
+
+            for (int id : n.getUseIds())
+                weights[id] += frequency;
+        }
+
+        for (int v = 0; v < constants.length; v++) 
+        {
+            if (constants[v] != null)
+                weights[v] = 0;
+        }
+
+        return weights;
+    }
+    
+    public FlowGraphNode getNode(int index) 
+    {
+        return nodes.get(index);
+    }
+    
+    public int getIndex(FlowGraphNode node) 
+    {
+        return nodes.indexOf(node);
+    }
+    
+    public List<FlowGraphNode> getNodes() 
+    {
+        return new ArrayList<>(nodes);
+    }
+    
+    public int nodesCount() 
+    {
+        return nodes.size();
+    }
+    
+    public void addEdge(FlowGraphNode from, FlowGraphNode to) 
+    {
+        if (from != null && to != null && from != to && nodes.contains(from) && nodes.contains(to)) 
+        {
+            edges.computeIfAbsent(from, k -> new HashSet<>()).add(to);
+            from.addSuccessor(to);
+            to.addPredecessor(from);
+        }
+    }
+    
+    public int getLivenessIterations() 
+    {
+        return livenessIterations;
+    }
+
+    public int getLivenessVisits() 
+    {
+        return livenessVisits;
+    }
+
+    public int getLivenessBlocks() 
+    {
+        return livenessBlocks;
+    }
+
+    // "iterative", "worklist" or "blocks", as given to --liveness
+    public Liveness computLiveness(String solver) 
+    {
+        livenessBlocks = 0;
+
+        switch (solver) 
+        {
+            case "iterative":
+                return computLiveness();
+            case "worklist":
+                return computLivenessWorklist();
+            default:
+                return computLivenessBlocks();
+        }
+    }
+
+    // Round-robin solver: every node, in forward order, until nothing changes.
+    public Liveness computLiveness() 
+    {
+        Map<FlowGraphNode, Set<String>> in = new LinkedHashMap<>();
+        Map<FlowGraphNode, Set<String>> out = new LinkedHashMap<>();
+        boolean updated;
+    
+        for (FlowGraphNode n : nodes) 
+        {
+            in.put(n, new HashSet<>());
+            out.put(n, new HashSet<>());
+        }
+
+        livenessIterations = 0;
+        livenessVisits = 0;
+    
+        do 
+        {
+            updated = false;
+            livenessIterations++;
+    
+            for (FlowGraphNode n : nodes) 
+            {
+                livenessVisits++;
+
+                Set<String> oldin = new HashSet<>(in.get(n));
+                Set<String> oldout = new HashSet<>(out.get(n));
+    
+                // in[n] = use[n]\/(out[n]-def[n])
+                Set<String> newin = new HashSet<>(n.getUse());
+                Set<String> diff = new HashSet<>(oldout);
+                diff.removeAll(n.getDef());
+                newin.addAll(diff);
+    
+                // out[n] = \/(s in succ[n]) in[s]
+                Set<String> newout = new HashSet<>();
+                for (FlowGraphNode s : n.getSucc())
+                    newout.addAll(in.get(s));
+    
+                in.put(n, newin);
+                out.put(n, newout);
+    
+                if (!newin.equals(oldin) || !newout.equals(oldout))
+                    updated = true;
+            }
+        } 
+        while (updated);
+    
+        return new Liveness(symbols,
+                            new ArrayList<>(in.values()), 
+                            new ArrayList<>(out.values()), 
+                            nodes.stream().map(FlowGraphNode::getDef).collect(Collectors.toList()), 
+                            nodes.stream().map(FlowGraphNode::getUse).collect(Collectors.toList()));
+    }
+
+    // Worklist solver. Nodes are taken in reverse postorder of the reversed graph
+    // (successors before predecessors), and only the predecessors of a node whose
+    // in-set grew are queued again. One iteration is one sweep over that order.
+    // The sets are bit sets over the symbol ids.
+    public Liveness computLivenessWorklist() 
+    {
+        int count = nodes.size();
+        int words = (symbols.size() + 63) >>> 6;
+        long[][] in = new long[count][words];
+        long[][] out = new long[count][words];
+        long[][] def = new long[count][words];
+        long[][] use = new long[count][words];
+        int[][] succ = new int[count][];
+        int[][] pred = new int[count][];
+
+        for (FlowGraphNode n : nodes) 
+        {
+            for (int id : n.getDefIds())
+                Liveness.add(def[n.getIndex()], id);
+
+            for (int id : n.getUseIds())
+                Liveness.add(use[n.getIndex()], id);
+
+            succ[n.getIndex()] = n.getSucc().stream().mapToInt(FlowGraphNode::getIndex).toArray();
+            pred[n.getIndex()] = n.getPred().stream().mapToInt(FlowGraphNode::getIndex).toArray();
+        }
+
+        int[] order = backwardOrder(succ, pred);
+        boolean[] queued = new boolean[count];
+        Arrays.fill(queued, true);
+        int pending = count;
+
+        livenessIterations = 0;
+        livenessVisits = 0;
+
+        while (pending > 0) 
+        {
+            livenessIterations++;
+
+            for (int n : order) 
+            {
+                if (!queued[n])
+                    continue;
+
+                queued[n] = false;
+                pending--;
+                livenessVisits++;
+
+                // out[n] = \/(s in succ[n]) in[s]
+                // Sets only grow from empty, so both can be updated in place.
+                long[] outn = out[n];
+                for (int s : succ[n]) 
+                {
+                    for (int w = 0; w < words; w++)
+                        outn[w] |= in[s][w];
+                }
+
+                // in[n] = use[n]\/(out[n]-def[n])
+                long[] inn = in[n];
+                boolean changed = false;
+                for (int w = 0; w < words; w++) 
+                {
+                    long grown = inn[w] | use[n][w] | (outn[w] & ~def[n][w]);
+
+                    if (grown != inn[w]) 
+                    {
+                        inn[w] = grown;
+                        changed = true;
+                    }
+                }
+
+                if (changed) 
+                {
+                    for (int p : pred[n]) 
+                    {
+                        if (!queued[p]) 
+                        {
+                            queued[p] = true;
+                            pending++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return new Liveness(symbols, in, out, 
+                            nodes.stream().map(FlowGraphNode::getDef).collect(Collectors.toList()), 
+                            nodes.stream().map(FlowGraphNode::getUse).collect(Collectors.toList()));
+    }
+
+    // Basic block solver. The fixed point is found over the basic blocks, with
+    // each block's upward-exposed uses and definitions as its use and def, and
+    // one backward sweep through each block then gives every node its sets.
+    // One iteration is one sweep over the blocks, and visits count blocks.
+    public Liveness computLivenessBlocks() 
+    {
+        int count = nodes.size();
+        int words = (symbols.size() + 63) >>> 6;
+        long[][] in = new long[count][words];
+        long[][] out = new long[count][words];
+        long[][] def = new long[count][words];
+        long[][] use = new long[count][words];
+        int[][] succ = new int[count][];
+
+        for (FlowGraphNode n : nodes) 
+        {
+            for (int id : n.getDefIds())
+                Liveness.add(def[n.getIndex()], id);
+
+            for (int id : n.getUseIds())
+                Liveness.add(use[n.getIndex()], id);
+
+            succ[n.getIndex()] = n.getSucc().stream().mapToInt(FlowGraphNode::getIndex).toArray();
+        }
+
+        ControlFlowGraph.BasicBlocks blocks = new ControlFlowGraph.BasicBlocks(succ);
+        blocks.liveness(use, def, in, out);
+
+        livenessIterations = blocks.iterations;
+        livenessVisits = blocks.visits;
+        livenessBlocks = blocks.count();
+
+        return new Liveness(symbols, in, out, 
+                            nodes.stream().map(FlowGraphNode::getDef).collect(Collectors.toList()), 
+                            nodes.stream().map(FlowGraphNode::getUse).collect(Collectors.toList()));
+    }
+
+    // Reverse postorder of the reversed graph, found by a depth first search over
+    // predecessors from the exit nodes. Nodes that cannot reach an exit (endless
+    // loops) are appended last.
+    private static int[] backwardOrder(int[][] succ, int[][] pred) 
+    {
+        int count = succ.length;
+        int[] postorder = new int[count];
+        int visited = 0;
+        boolean[] seen = new boolean[count];
+        int[] stack = new int[count];
+        int[] next = new int[count];
+
+        for (int root = count - 1; root >= -count; root--) 
+        {
+            // exits first, then anything left over
+            int r = root >= 0 ? root : -root - 1;
+
+            if (seen[r] || (root >= 0 && succ[r].length > 0))
+                continue;
+
+            int top = 0;
+            stack[top] = r;
+            next[r] = 0;
+            seen[r] = true;
+
+            while (top >= 0) 
+            {
+                int v = stack[top];
+
+                if (next[v] < pred[v].length) 
+                {
+                    int p = pred[v][next[v]++];
+
+                    if (!seen[p]) 
+                    {
+                        seen[p] = true;
+                        next[p] = 0;
+                        stack[++top] = p;
+                    }
+                } 
+                else 
+                {
+                    postorder[visited++] = v;
+                    top--;
+                }
+            }
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            order[i] = postorder[count - 1 - i];
+
+        return order;
+    }
+}
@@ -0,0 +1,131 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+
+class FlowGraphNode 
+{
+    private final FlowGraph graph;
+    private final int index;
+    
+    private final VInstr instr;
+    private final Set<String> def;
+    private final Set<String> use;
+
+    // def, use and the move source as symbol ids, see FlowGraph.numberVariables
+    private int[] defIds;
+    private int[] useIds;
+    private int moveSourceId = -1;
+    
+    private Set<FlowGraphNode> succ = new HashSet<>();
+    private Set<FlowGraphNode> pred = new HashSet<>();
+    
+    public FlowGraphNode(FlowGraph g, int idx, VInstr vi, Set<String> d, Set<String> u) 
+    {
+        graph = g;
+        index = idx;
+        instr = vi;
+        def = d;
+        use = u;
+    }
+    
+    public FlowGraph getGraph() 
+    {
+        return graph;
+    }
+    
+    public int getIndex() 
+    {
+        return index;
+    }
+
+    // Hash by position, so that sets of nodes iterate the same way on every run and thread
+    @Override
+    public int hashCode() 
+    {
+        return index;
+    }
+    
+    public Set<FlowGraphNode> getSucc() 
+    {
+        return new HashSet<>(succ);
+    }
+    
+    public Set<FlowGraphNode> getPred() 
+    {
+        return new HashSet<>(pred);
+    }
+    
+    public VInstr getInstr() 
+    {
+        return instr;
+    }
+    
+    public Set<String> getDef() 
+    {
+        return new HashSet<>(def);
+    }
+    
+    public Set<String> getUse() 
+    {     
+        return new HashSet<>(use);
+    }
+
+    // For a move `dst = src` between two variables, src; null for anything else
+    public String getMoveSource() 
+    {
+        if (instr instanceof VAssign && ((VAssign) instr).source instanceof VVarRef)
+            return ((VAssign) instr).source.toString();
+
+        return null;
+    }
+
+    public boolean isMove() 
+    {
+        return getMoveSource() != null;
+    }
+
+    void number(Symbol.SymbolTable symbols) 
+    {
+        defIds = def.stream().mapToInt(symbols::intern).toArray();
+        useIds = use.stream().mapToInt(symbols::intern).toArray();
+        moveSourceId = isMove() ? symbols.lookup(getMoveSource()) : -1;
+    }
+
+    public int[] getDefIds() 
+    {
+        return defIds;
+    }
+
+    public int[] getUseIds() 
+    {
+        return useIds;
+    }
+
+    public int getMoveSourceId() 
+    {
+        return moveSourceId;
+    }
+
+    public boolean defines(int id) 
+    {
+        for (int d : defIds) 
+        {
+            if (d == id)
+                return true;
+        }
+
+        return false;
+    }
+    
+    public void addSuccessor(FlowGraphNode gn) 
+    {
+        if (gn != null && this != gn)
+            succ.add(gn);
+    }
+    
+    public void addPredecessor(FlowGraphNode gn) 
+    {
+        if (gn != null && this != gn)
+            pred.add(gn);
+    }
+}
@@ -0,0 +1,348 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+//On-disk cache of translated functions (--cache=DIR). An entry holds the vaporM lines
+//and the stderr of one function, named by the SHA-256 of the function's source text
+//together with everything else its translation depends on: the options that change
+//the output, and the class files of the translator, so a rebuilt V2VM starts afresh.
+//A hit refreshes the entry's modification time, and once the directory outgrows its
+//capacity the least recently used entries are deleted.
+class FunctionCache
+{
+    //the classes whose code decides what a function translates to, each with its nested classes
+    private static final String[] TRANSLATOR = { "CFG_Node", "LivenessBitSets", "LiveInterval", "LiveIntervals", "RegisterAllocator", 
+        "VaporFunctionVisitor", "VaporVisitor", "V2VM" };
+
+    //packages the translator calls into, every class of which is part of the key;
+    //each is found through the class named here
+    private static final String[] PACKAGES = { "ControlFlowGraph/LoopNest", "Graph/Graph", "RegAlloc/Color", "Symbol/SymbolTable", "Temp/Temp" };
+
+    private final Path directory;
+    private final long capacity;
+    private final boolean verify;
+    private final byte[] configuration;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger mismatches = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    public FunctionCache(V2VMOptions options) throws IOException
+    {
+        directory = Paths.get(options.cacheDirectory);
+        capacity = options.cacheCapacity;
+        verify = options.cacheVerify;
+        Files.createDirectories(directory);
+
+        MessageDigest digest = sha256();
+        digest.update(("treeset=" + options.treeSetLiveness + " blocks=" + options.blockLiveness + " check=" + options.checkLiveness + " coloring=" + options.coloring 
+            + " stats=" + options.allocationStats + "\n").getBytes(StandardCharsets.UTF_8));
+
+        List<Path> classFiles = new ArrayList<>();
+
+        for (String name : TRANSLATOR)
+        {
+            Path classFile = classFile(name);
+            String simpleName = classFile.getFileName().toString().replace(".class", "");
+
+            classFiles.add(classFile);
+            classFiles.addAll(list(classFile.getParent(), simpleName + "$*.class"));
+        }
+
+        for (String name : PACKAGES)
+            classFiles.addAll(list(classFile(name).getParent(), "*.class"));
+
+        for (Path classFile : classFiles)
+        {
+            digest.update(classFile.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(classFile));
+        }
+
+        configuration = digest.digest();
+    }
+
+    //the class file of a class, in a directory or a jar on the class path
+    private static Path classFile(String name) throws IOException
+    {
+        URL url = V2VM.class.getResource("/" + name + ".class");
+
+        if (url == null)
+            throw new IOException("cannot find " + name + ".class to key the cache");
+
+        try
+        {
+            URI uri = url.toURI();
+
+            if (uri.getScheme().equals("jar"))
+            {
+                try
+                {
+                    FileSystems.newFileSystem(uri, Collections.emptyMap());
+                }
+                catch (FileSystemAlreadyExistsException e)
+                {
+                    //opened by an earlier cache
+                }
+            }
+
+            return Paths.get(uri);
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    //the files of a directory matching a glob, in name order
+    private static List<Path> list(Path directory, String glob) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob))
+        {
+            for (Path file : stream)
+                files.add(file);
+        }
+
+        files.sort(Comparator.comparing(Path::toString));
+
+        return files;
+    }
+
+    //the source text of each function: from its first line up to the next function or data segment
+    public static String[] sources(String text, VaporProgram program)
+    {
+        TreeSet<Integer> starts = new TreeSet<>();
+        for (VFunction function : program.functions)
+            starts.add(function.sourcePos.line);
+        for (VDataSegment segment : program.dataSegments)
+            starts.add(segment.sourcePos.line);
+
+        //character offset of each start line, in one pass over the text
+        Map<Integer, Integer> offsets = new HashMap<>();
+        int line = 1;
+        int offset = 0;
+
+        for (int start : starts)
+        {
+            for (; line < start; line++)
+                offset = text.indexOf('\n', offset) + 1;
+
+            offsets.put(start, offset);
+        }
+
+        String[] sources = new String[program.functions.length];
+
+        for (int i = 0; i < sources.length; i++)
+        {
+            int start = program.functions[i].sourcePos.line;
+            Integer next = starts.higher(start);
+
+            sources[i] = text.substring(offsets.get(start), next == null ? text.length() : offsets.get(next));
+        }
+
+        return sources;
+    }
+
+    //the translation of one function, taken from the cache when it is there.
+    //With --cache-verify a hit is compiled anyway and compared with the entry.
+    public List<String> translate(VFunction vaporFunction, String source, V2VMOptions options, PrintStream err, CompileStats.Function stats) throws Exception
+    {
+        Path entry = directory.resolve(key(source));
+        Entry cached = read(entry);
+
+        if (cached != null && !verify)
+        {
+            hits.incrementAndGet();
+            err.print(cached.err);
+
+            List<String> code = cached.lines();
+            stats.setCached(true);
+            stats.setLines(code.size());
+
+            return code;
+        }
+
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        List<String> code;
+
+        try
+        {
+            code = V2VM.compileFunction(vaporFunction, options, new PrintStream(error, true), stats);
+        }
+        finally
+        {
+            err.print(error);
+        }
+
+        if (cached == null)
+            misses.incrementAndGet();
+        else
+        {
+            hits.incrementAndGet();
+
+            if (!cached.code.equals(text(code)) || !cached.err.equals(error.toString()))
+            {
+                mismatches.incrementAndGet();
+                err.println("cache: " + vaporFunction.ident + " does not match its cached translation");
+            }
+        }
+
+        write(entry, code, error.toString());
+
+        return code;
+    }
+
+    //delete the least recently used entries until the directory fits its capacity
+    public void evict() throws IOException
+    {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, FileTime> used = new HashMap<>();
+        long size = 0;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "[0-9a-f]*"))
+        {
+            for (Path file : files)
+            {
+                try
+                {
+                    used.put(file, Files.getLastModifiedTime(file));
+                    size += Files.size(file);
+                    entries.add(file);
+                }
+                catch (NoSuchFileException e)
+                {
+                    //evicted by another compilation sharing the directory
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(used::get));
+
+        for (int i = 0; i < entries.size() && size > capacity; i++)
+        {
+            try
+            {
+                size -= Files.size(entries.get(i));
+                Files.delete(entries.get(i));
+                evictions.incrementAndGet();
+            }
+            catch (NoSuchFileException e)
+            {
+                //already gone
+            }
+        }
+    }
+
+    public void printStats(PrintStream err)
+    {
+        err.println("cache: " + hits + " hits, " + misses + " misses, " + evictions + " evicted" 
+            + (verify ? ", " + mismatches + " mismatches" : ""));
+    }
+
+    private String key(String source)
+    {
+        MessageDigest digest = sha256();
+        digest.update(configuration);
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static class Entry
+    {
+        String code;
+        String err;
+
+        List<String> lines()
+        {
+            //every line ends in '\n', so the piece after the last one is empty
+            String[] lines = code.split("\n", -1);
+            return Arrays.asList(lines).subList(0, lines.length - 1);
+        }
+    }
+
+    //code as VaporMWriter writes it; a buffer line may itself hold several lines
+    private static String text(List<String> code)
+    {
+        StringBuilder text = new StringBuilder();
+        for (String line : code)
+            text.append(line).append('\n');
+
+        return text.toString();
+    }
+
+    //an entry is the length of its code text, the code text, then the stderr text
+    private Entry read(Path file) throws IOException
+    {
+        String text;
+
+        try
+        {
+            text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+
+        Entry entry = new Entry();
+        int start = text.indexOf('\n') + 1;
+
+        try
+        {
+            int end = start + Integer.parseInt(text.substring(0, start - 1));
+
+            entry.code = text.substring(start, end);
+            entry.err = text.substring(end);
+        }
+        catch (RuntimeException e)
+        {
+            //truncated or foreign file: treat it as a miss, and the rewrite replaces it
+            return null;
+        }
+
+        return entry;
+    }
+
+    //written to a temporary file and renamed, so a reader never sees half an entry
+    private void write(Path file, List<String> code, String err) throws IOException
+    {
+        String text = text(code);
+
+        Path temporary = Files.createTempFile(directory, "tmp", null);
+        Files.write(temporary, (text.length() + "\n" + text + err).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Graph;
+
+/**
+ * The directed edges of one graph, as an open-addressing hash set of
+ * (from, to) node keys, so that Node.goesTo and Graph.addEdge take
+ * constant time instead of a walk down a NodeList.  RegAlloc.Color keeps
+ * its interference edges in one too, each as (lower, higher).
+ */
+
+public class EdgeSet
+{
+    private long[] keys = new long[64];
+    private int size = 0;
+
+    private static long key(int from, int to)
+    {
+        return ((long) from << 32 | (to & 0xFFFFFFFFL)) + 1; // never 0, which marks an empty slot
+    }
+
+    private int slot(long k)
+    {
+        long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (keys.length - 1);
+    }
+
+    public boolean contains(int from, int to)
+    {
+        long k = key(from, to);
+
+        for (int s = slot(k); keys[s] != 0; s = (s + 1) & (keys.length - 1))
+        {
+            if (keys[s] == k)
+                return true;
+        }
+
+        return false;
+    }
+
+    public boolean add(int from, int to)
+    {
+        if (contains(from, to))
+            return false;
+
+        if ((size + 1) * 2 > keys.length)
+        {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+
+            for (long k : old)
+            {
+                if (k != 0)
+                    insert(k);
+            }
+        }
+
+        insert(key(from, to));
+        size++;
+
+        return true;
+    }
+
+    public boolean remove(int from, int to)
+    {
+        long k = key(from, to);
+        int mask = keys.length - 1;
+        int s = slot(k);
+
+        while (keys[s] != k)
+        {
+            if (keys[s] == 0)
+                return false;
+
+            s = (s + 1) & mask;
+        }
+
+        // close the gap by moving back every later key of the same run
+        // that would no longer be reachable from its home slot
+        int gap = s;
+
+        for (int t = (s + 1) & mask; keys[t] != 0; t = (t + 1) & mask)
+        {
+            int home = slot(keys[t]);
+
+            if (((t - home) & mask) >= ((t - gap) & mask))
+            {
+                keys[gap] = keys[t];
+                gap = t;
+            }
+        }
+
+        keys[gap] = 0;
+        size--;
+
+        return true;
+    }
+
+    private void insert(long k)
+    {
+        int s = slot(k);
+
+        while (keys[s] != 0)
+            s = (s + 1) & (keys.length - 1);
+
+        keys[s] = k;
+    }
+}
@@ -1,16 +1,52 @@
 package Graph;
 
+/**
+ * A directed graph.  Nodes are numbered in order of creation and kept in
+ * an array; each node keeps its successors and predecessors as growable
+ * arrays of those numbers, and the graph keeps every edge in a hash set,
+ * so adding, removing and testing an edge, and every degree, take
+ * constant time.  The NodeLists of nodes(), succ(), pred() and adj() are
+ * built from the arrays when first asked for and kept until the graph
+ * changes, in the same order as when they were the representation.
+ */
+
 public class Graph 
 {
     public int nodecount = 0;
-    public NodeList mynodes, mylast;
+    private Node[] mynodes = new Node[16];
+    private NodeList nodeList;
+    final EdgeSet edges = new EdgeSet();
 
-    public NodeList nodes() { return mynodes;} 
+    public NodeList nodes() 
+    {
+        if (nodeList == null)
+        {
+            for (int i = nodecount - 1; i >= 0; i--)
+                nodeList = new NodeList(mynodes[i], nodeList);
+        }
+
+        return nodeList;
+    } 
+
+    /**
+    * The node numbered key, as in Node.mykey.
+    */
+    public Node node(int key) { return mynodes[key]; }
   
     public Node newNode() 
     {
         return new Node(this);
     }
+
+    // called by the Node constructor once the node has its key
+    void add(Node n) 
+    {
+        if (n.mykey == mynodes.length)
+            mynodes = java.util.Arrays.copyOf(mynodes, mynodes.length * 2);
+
+        mynodes[n.mykey] = n;
+        nodeList = null;
+    }
   
     void check(Node n) 
     {
@@ -18,46 +54,28 @@ public class Graph
             System.out.println("Graph.addEdge using nodes from the wrong graph");
     }
   
-    static boolean inList(Node a, NodeList l) 
-    {
-        for(NodeList p=l; p!=null; p=p.tail)
-        {
-            if (p.head==a)
-                return true;
-        }
-
-        return false;
-    }
-  
     public void addEdge(Node from, Node to) 
     {
         check(from); 
         check(to);
 
-        if (from.goesTo(to)) 
+        if (!edges.add(from.mykey, to.mykey)) 
             return;
 
-        to.preds = new NodeList(from, to.preds);
-        from.succs = new NodeList(to, from.succs);
+        to.addPred(from);
+        from.addSucc(to);
     }
   
-    NodeList delete(Node a, NodeList l) 
+    public void rmEdge(Node from, Node to) 
     {
-        if (l == null)
+        if (!edges.remove(from.mykey, to.mykey))
         {
             System.out.println("Graph.rmEdge: edge nonexistent");
-            return null;
+            return;
         }
-        else if (a==l.head) 
-            return l.tail;
-        else 
-            return new NodeList(l.head, delete(a, l.tail));
-    }
-  
-    public void rmEdge(Node from, Node to) 
-    {
-        to.preds = delete(from,to.preds);
-        from.succs = delete(to,from.succs);
+
+        to.removePred(from);
+        from.removeSucc(to);
     }
   
     /**
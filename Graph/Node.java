@@ -2,10 +2,19 @@ package Graph;
 
 public class Node 
 {
+    private static final int[] NONE = new int[0];
+
     public Graph mygraph;
     public int mykey;
-    public NodeList succs;
-    public NodeList preds;
+
+    // keys of successors and predecessors, in the order the edges were added
+    private int[] succs = NONE;
+    private int succCount;
+    private int[] preds = NONE;
+    private int predCount;
+
+    // the NodeList views, built on demand and dropped when an edge changes
+    private NodeList succList, predList, adjList;
 
     //private Node(){}
     
@@ -13,39 +22,90 @@ public class Node
     {
         mygraph = g;
         mykey = g.nodecount++;
-        
-        NodeList p = new NodeList(this, null);
-        
-        if (g.mylast == null)
-            g.mynodes = g.mylast = p;
-        else 
-            g.mylast = g.mylast.tail = p;
+        g.add(this);
+    }
+
+    void addSucc(Node n) 
+    {
+        if (succCount == succs.length)
+            succs = java.util.Arrays.copyOf(succs, Math.max(4, succCount * 2));
+
+        succs[succCount++] = n.mykey;
+        succList = adjList = null;
+    }
+
+    void addPred(Node n) 
+    {
+        if (predCount == preds.length)
+            preds = java.util.Arrays.copyOf(preds, Math.max(4, predCount * 2));
+
+        preds[predCount++] = n.mykey;
+        predList = adjList = null;
+    }
+
+    void removeSucc(Node n) 
+    {
+        succCount = remove(succs, succCount, n.mykey);
+        succList = adjList = null;
     }
 
-    NodeList cat(NodeList a, NodeList b) 
+    void removePred(Node n) 
     {
-        if (a == null) 
-            return b;
-        else 
-            return new NodeList(a.head, cat(a.tail,b));
+        predCount = remove(preds, predCount, n.mykey);
+        predList = adjList = null;
     }
 
-    int len(NodeList l) 
+    // drop key from the first count entries of keys, keeping the rest in order
+    static int remove(int[] keys, int count, int key) 
     {
         int i = 0;
-        for(NodeList p=l; p!=null; p=p.tail) 
+        while (keys[i] != key)
             i++;
-	    return i;
+
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+
+        return count - 1;
+    }
+
+    // most recently added edge first, as when edges were consed onto a list
+    NodeList list(int[] keys, int count, NodeList tail) 
+    {
+        NodeList l = tail;
+        for (int i = 0; i < count; i++)
+            l = new NodeList(mygraph.node(keys[i]), l);
+
+        return l;
+    }
+
+    public NodeList adj() 
+    {
+        if (adjList == null)
+            adjList = list(succs, succCount, pred());
+
+        return adjList;
+    }
+
+    public NodeList succ() 
+    {
+        if (succList == null)
+            succList = list(succs, succCount, null);
+
+        return succList;
+    }
+
+    public NodeList pred() 
+    {
+        if (predList == null)
+            predList = list(preds, predCount, null);
+
+        return predList;
     }
 
-    public NodeList adj() {return cat(succ(), pred());}
-    public NodeList succ() {return succs;}
-    public NodeList pred() {return preds;}
-    public int inDegree() {return len(pred());}
-    public int outDegree() {return len(succ());}
+    public int inDegree() {return predCount;}
+    public int outDegree() {return succCount;}
     public int degree() {return inDegree()+outDegree();} 
-    public boolean goesTo(Node n) { return Graph.inList(n, succ()); }
-    public boolean comesFrom(Node n) { return Graph.inList(n, pred()); }
+    public boolean goesTo(Node n) { return n.mygraph == mygraph && mygraph.edges.contains(mykey, n.mykey); }
+    public boolean comesFrom(Node n) { return n.mygraph == mygraph && mygraph.edges.contains(n.mykey, mykey); }
     public boolean adj(Node n) { return goesTo(n) || comesFrom(n); }
     public String toString() {return String.valueOf(mykey);}
 }
@@ -0,0 +1,110 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+
+class GraphColoringAllocator 
+{
+    // Same registers, in the same order of preference, as the global pool
+    private static final Register[] registers = 
+    {
+        Register.t0, Register.t1, Register.t2, Register.t3,
+        Register.t4, Register.t5, Register.t6, Register.t7,
+        Register.t8,
+        Register.s0, Register.s1, Register.s2, Register.s3,
+        Register.s4, Register.s5, Register.s6, Register.s7
+    };
+
+    private int spills;
+
+    public AllocationMap computeAllocation(FlowGraph graph, Liveness liveness, VVarRef.Local[] params) 
+    {
+        // The flow graph numbers the variables: parameters first, then in order of appearance
+        Symbol.SymbolTable symbols = graph.getSymbols();
+        int count = symbols.size();
+
+        RegAlloc.TempInterferenceGraph ig = new RegAlloc.TempInterferenceGraph(count);
+
+        // Parameters are all defined on entry, together with whatever is live there
+        long[] entry = graph.nodesCount() > 0 ? liveness.getInBits(0) : new long[0];
+        for (VVarRef.Local p : params) 
+        {
+            int pid = symbols.lookup(p.ident);
+
+            if (pid == -1)
+                continue;
+
+            for (VVarRef.Local q : params) 
+            {
+                int qid = symbols.lookup(q.ident);
+
+                if (qid != -1)
+                    ig.addInterference(pid, qid);
+            }
+
+            forEach(entry, var -> ig.addInterference(pid, var));
+        }
+
+        for (int i = 0; i < graph.nodesCount(); i++) 
+        {
+            FlowGraphNode n = graph.getNode(i);
+            int move = n.getMoveSourceId();
+
+            // A definition interferes with everything live after it,
+            // except the source of a move into it.
+            for (int d : n.getDefIds()) 
+            {
+                forEach(liveness.getOutBits(i), var -> 
+                {
+                    if (var != move)
+                        ig.addInterference(d, var);
+                });
+
+                if (move != -1)
+                    ig.addMove(d, move);
+            }
+        }
+
+        long[] cost = graph.getSpillWeights();
+        for (int v = 0; v < count; v++)
+            ig.setSpillCost(v, (int) Math.min(cost[v], Integer.MAX_VALUE));
+
+        String[] names = Arrays.stream(registers).map(Register::toString).toArray(String[]::new);
+        RegAlloc.Color color = new RegAlloc.Color(ig, names);
+
+        // Back to names for the converter
+        Map<String, Register> register = new LinkedHashMap<>();
+        List<Integer> stack = new ArrayList<>();
+        String[] constants = graph.getConstants();
+
+        for (int v = 0; v < count; v++) 
+        {
+            int c = color.color(ig.node(v));
+
+            if (c >= 0)
+                register.put(symbols.name(v), registers[c]);
+            else if (constants[v] == null)
+                stack.add(v);
+        }
+
+        spills = stack.size();
+
+        Map<String, Integer> slots = stack.isEmpty() ? Collections.emptyMap() 
+            : RegAllocHelper.packStackSlots(RegAllocHelper.generateLiveIntervals(graph, liveness), stack);
+
+        return new AllocationMap(register, slots, graph.getConstantsByName());
+    }
+
+    private static void forEach(long[] bits, java.util.function.IntConsumer action) 
+    {
+        for (int w = 0; w < bits.length; w++) 
+        {
+            for (long word = bits[w]; word != 0; word &= word - 1)
+                action.accept((w << 6) + Long.numberOfTrailingZeros(word));
+        }
+    }
+
+    public int getSpillCount() 
+    {
+        return spills;
+    }
+}
@@ -0,0 +1,41 @@
+class Interval 
+{
+    private final int id;
+    private final String var;
+    private int start;
+    private int end;
+    
+    public Interval(int i, String v, int s, int e) 
+    {
+        id = i;
+        var = v;
+        start = s;
+        end = e;
+    }
+
+    // Symbol id of the variable in its flow graph
+    public int getId() 
+    {
+        return id;
+    }
+    
+    public int getStart() 
+    {
+        return start;
+    }
+    
+    public int getEnd() 
+    {
+        return end;
+    }
+    
+    public void setEnd(int e) 
+    {
+        end = e;
+    }
+    
+    public String getVar() 
+    {
+        return var;
+    }
+}
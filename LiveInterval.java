@@ -0,0 +1,89 @@
+class LiveInterval 
+{
+    public int startPoint = 0;
+    public int endPoint = 0;
+    public int location = 0;
+    public String identifier = null;
+    public int id = -1;
+    public String register = null;
+
+    //the positions covered, as pairs from..to in increasing order;
+    //the gaps between pairs are lifetime holes
+    public int[] ranges;
+
+    public LiveInterval(int start, int end, String identifier)
+    {
+        this.startPoint = start;
+        this.endPoint = end;
+        this.identifier = identifier;
+        register = "";
+        location = -1;
+        ranges = new int[] { start, end };
+    }
+
+    public LiveInterval(int start, int end, String identifier, int id)
+    {
+        this(start, end, identifier);
+        this.id = id;
+    }
+
+    public LiveInterval(int[] ranges, String identifier, int id)
+    {
+        this(ranges[0], ranges[ranges.length - 1], identifier, id);
+        this.ranges = ranges;
+    }
+
+    //position is in one of the ranges, not in a hole
+    public boolean covers(int position)
+    {
+        for (int r = 0; r < ranges.length && ranges[r] <= position; r += 2)
+        {
+            if (position <= ranges[r + 1])
+                return true;
+        }
+
+        return false;
+    }
+
+    //some position is covered by both
+    public boolean intersects(LiveInterval other)
+    {
+        int r = 0, s = 0;
+
+        while (r < ranges.length && s < other.ranges.length)
+        {
+            if (ranges[r + 1] < other.ranges[s])
+                r += 2;
+            else if (other.ranges[s + 1] < ranges[r])
+                s += 2;
+            else
+                return true;
+        }
+
+        return false;
+    }
+
+    //a spilled interval's slot comes after the stackBase slots of the register save area
+    public String getLocation(int stackBase)
+    {
+        if (location == -1)
+            return register;
+        else
+            return "local[" + (stackBase + location) + "]";
+    }
+
+    public void print()
+    {
+        System.out.println(identifier + "[" + startPoint + " , " + endPoint + "], location: " + location);
+        System.out.println("Register: " + register + ", location: " + location);
+        int i;
+
+        for (i = 0; i < startPoint; i++)
+            System.out.print(".");
+
+        for (i = startPoint - 1; i < endPoint; i++)
+            System.out.print(covers(i + 1) ? "+" : " ");
+
+        System.out.println();
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.*;
+
+class LiveIntervals
+{
+    public List<LiveInterval> liveIntervals;
+    public Symbol.SymbolTable symbols;
+
+    //allocation index: symbol id -> that variable's intervals sorted by start,
+    //with the running maximum of their end points. Rebuilt lazily after the list is reordered.
+    private LiveInterval[][] byId;
+    private int[][] starts;
+    private int[][] reach;
+
+    public LiveIntervals(List<LiveInterval> liveIntervals, Symbol.SymbolTable symbols)
+    {
+        this.liveIntervals = liveIntervals;
+        this.symbols = symbols;
+    }
+
+    //intervals built without ids are numbered by a table of their own
+    public LiveIntervals(List<LiveInterval> liveIntervals)
+    {
+        this(liveIntervals, new Symbol.SymbolTable());
+
+        for (LiveInterval liveInterval : liveIntervals)
+            liveInterval.id = symbols.intern(liveInterval.identifier);
+    }
+    public LiveInterval get_liveInterval(int i) { return liveIntervals.get(i); }
+    public int size() { return liveIntervals.size(); }
+
+    public void print()
+    {
+        for (LiveInterval liveInterval : liveIntervals)
+            liveInterval.print();
+    }
+
+    public void sortBy_increasingStart()
+    {
+        liveIntervals.sort((interval1, interval2) -> interval1.startPoint < interval2.startPoint ? -1 : 1);
+        byId = null;
+    }
+
+    //first interval of identifier, in order of increasing start, that covers line
+    public LiveInterval get_registerAllocation(int line, String identifier)
+    {
+        int id = symbols.lookup(identifier);
+
+        return id == -1 ? null : get_registerAllocation(line, id);
+    }
+
+    public LiveInterval get_registerAllocation(int line, int id)
+    {
+        if (byId == null)
+            buildIndex();
+
+        int[] start = starts[id];
+        int[] end = reach[id];
+
+        //candidates are the intervals starting at or before line
+        int lo = 0, hi = start.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (start[mid] <= line)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int candidates = lo;
+
+        //the first candidate whose end point reaches line is where the running maximum first does
+        lo = 0;
+        hi = candidates;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (line <= end[mid] + 1)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+
+        return lo < candidates ? byId[id][lo] : null;
+    }
+
+    //every interval of a variable, in order of increasing start
+    public LiveInterval[] get_liveIntervals(int id)
+    {
+        if (byId == null)
+            buildIndex();
+
+        return byId[id];
+    }
+
+    private void buildIndex()
+    {
+        List<List<LiveInterval>> groups = new ArrayList<>();
+
+        for (int id = 0; id < symbols.size(); id++)
+            groups.add(new ArrayList<>());
+
+        for (LiveInterval liveInterval : liveIntervals)
+            groups.get(liveInterval.id).add(liveInterval);
+
+        byId = new LiveInterval[groups.size()][];
+        starts = new int[groups.size()][];
+        reach = new int[groups.size()][];
+
+        for (int id = 0; id < groups.size(); id++)
+        {
+            List<LiveInterval> group = groups.get(id);
+            group.sort(Comparator.comparingInt(liveInterval -> liveInterval.startPoint));
+
+            byId[id] = group.toArray(new LiveInterval[0]);
+            starts[id] = new int[group.size()];
+            reach[id] = new int[group.size()];
+
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < group.size(); i++)
+            {
+                max = Math.max(max, group.get(i).endPoint);
+                starts[id][i] = group.get(i).startPoint;
+                reach[id][i] = max;
+            }
+        }
+    }
+}
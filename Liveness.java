@@ -0,0 +1,114 @@
+import java.util.*;
+
+class Liveness 
+{
+    private final Symbol.SymbolTable symbols;
+    private final long[][] inBits;
+    private final long[][] outBits;
+    private List<Set<String>> in;
+    private List<Set<String>> out;
+    private final List<Set<String>> def;
+    private final List<Set<String>> use;
+    
+    // Sets of names, as the round-robin solver computes them
+    public Liveness(Symbol.SymbolTable st, List<Set<String>> lsi, List<Set<String>> lso, List<Set<String>> lsd, List<Set<String>> lsu) 
+    {
+        symbols = st;
+        in = lsi;
+        out = lso;
+        def = lsd;
+        use = lsu;
+        inBits = toBits(lsi);
+        outBits = toBits(lso);
+    }
+
+    // Bit sets over symbol ids, as the worklist solver computes them.
+    // The sets of names are only made if the converter asks for them.
+    public Liveness(Symbol.SymbolTable st, long[][] bi, long[][] bo, List<Set<String>> lsd, List<Set<String>> lsu) 
+    {
+        symbols = st;
+        inBits = bi;
+        outBits = bo;
+        def = lsd;
+        use = lsu;
+    }
+    
+    public List<Set<String>> getIn() 
+    {
+        if (in == null)
+            in = toNames(inBits);
+
+        return new ArrayList<>(in);
+    }
+    
+    public List<Set<String>> getOut() 
+    {
+        if (out == null)
+            out = toNames(outBits);
+
+        return new ArrayList<>(out);
+    }
+    
+    public List<Set<String>> getDef() 
+    {
+        return new ArrayList<>(def);
+    }
+        
+    public List<Set<String>> getUse() 
+    {
+        return new ArrayList<>(use);
+    }
+
+    public long[] getInBits(int node) 
+    {
+        return inBits[node];
+    }
+
+    public long[] getOutBits(int node) 
+    {
+        return outBits[node];
+    }
+
+    public static boolean contains(long[] bits, int id) 
+    {
+        return (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    public static void add(long[] bits, int id) 
+    {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    private long[][] toBits(List<Set<String>> sets) 
+    {
+        long[][] bits = new long[sets.size()][(symbols.size() + 63) >>> 6];
+
+        for (int n = 0; n < sets.size(); n++) 
+        {
+            for (String var : sets.get(n))
+                add(bits[n], symbols.lookup(var));
+        }
+
+        return bits;
+    }
+
+    private List<Set<String>> toNames(long[][] bits) 
+    {
+        List<Set<String>> sets = new ArrayList<>(bits.length);
+
+        for (long[] b : bits) 
+        {
+            Set<String> set = new HashSet<>();
+
+            for (int w = 0; w < b.length; w++) 
+            {
+                for (long word = b[w]; word != 0; word &= word - 1)
+                    set.add(symbols.name((w << 6) + Long.numberOfTrailingZeros(word)));
+            }
+
+            sets.add(set);
+        }
+
+        return sets;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.*;
+
+// Liveness over bit vectors: use/def/in/out of each CFG node are long[] words
+// indexed by the symbol ids of the function's variables.
+class LivenessBitSets
+{
+    public Symbol.SymbolTable symbols;
+    public int words;
+    public int iterations;
+
+    public long[][] use;
+    public long[][] def;
+    public long[][] in;
+    public long[][] out;
+    public int[][] succ;
+
+    //the number of basic blocks, once solved by blocks
+    public int blocks;
+
+    public LivenessBitSets(List<CFG_Node> controlFlowGraph, Symbol.SymbolTable symbols)
+    {
+        this.symbols = symbols;
+
+        int n = controlFlowGraph.size();
+        words = (symbols.size() + 63) >>> 6;
+        use = new long[n][words];
+        def = new long[n][words];
+        in = new long[n][words];
+        out = new long[n][words];
+        succ = new int[n][];
+
+        for (int i = 0; i < n; i++)
+        {
+            CFG_Node cfgNode = controlFlowGraph.get(i);
+
+            for (int id : cfgNode.defIds)
+                set(def[i], id);
+
+            for (int id : cfgNode.useIds)
+                set(use[i], id);
+
+            succ[i] = new int[cfgNode.succ.size()];
+            for (int j = 0; j < cfgNode.succ.size(); j++)
+                succ[i][j] = cfgNode.succ.get(j) + VaporFunctionVisitor.HEADER;
+        }
+    }
+
+    private static void set(long[] bits, int id)
+    {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    public static boolean contains(long[] bits, int id)
+    {
+        return (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    //ALGORITHM 10.4, visiting nodes in reverse order since liveness flows backward.
+    //Changes are noticed while the words are written, so no separate fixed point sweep is needed.
+    public void solve()
+    {
+        boolean changed;
+        iterations = 0;
+
+        do
+        {
+            changed = false;
+            iterations++;
+
+            for (int n = in.length - 1; n >= 0; n--)
+            {
+                long[] in_n = in[n];
+                long[] out_n = out[n];
+                long[] use_n = use[n];
+                long[] def_n = def[n];
+                int[] succ_n = succ[n];
+
+                for (int w = 0; w < words; w++)
+                {
+                    //out[n] ← (U s E succ[n]) in[s]
+                    long o = 0;
+                    for (int s : succ_n)
+                        o |= in[s][w];
+
+                    //in[n] ← use[n] ∪ (out[n] − def [n])
+                    long i = use_n[w] | (o & ~def_n[w]);
+
+                    if (o != out_n[w] || i != in_n[w])
+                    {
+                        out_n[w] = o;
+                        in_n[w] = i;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        while (changed);
+    }
+
+    //the same fixed point over basic blocks, then one backward sweep per block for the nodes
+    public void solveByBlocks()
+    {
+        ControlFlowGraph.BasicBlocks basicBlocks = new ControlFlowGraph.BasicBlocks(succ);
+        basicBlocks.liveness(use, def, in, out);
+        iterations = basicBlocks.iterations;
+        blocks = basicBlocks.count();
+    }
+
+    public SortedSet<String> toSet(long[] bits)
+    {
+        SortedSet<String> set = new TreeSet<>();
+
+        for (int id = 0; id < symbols.size(); id++)
+        {
+            if (contains(bits, id))
+                set.add(symbols.name(id));
+        }
+
+        return set;
+    }
+}
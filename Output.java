@@ -0,0 +1,55 @@
+import java.io.*;
+
+class Output 
+{
+    private static final String INDENT = "  "; // two spaces
+
+    private String indent = "";
+    private PrintStream stream;
+    private boolean newLine = true;
+    private int lines = 0;
+
+    public Output(PrintStream s) 
+    {
+        stream = s;
+    }
+
+    public void increaseIndent() 
+    {
+        indent += INDENT;
+    }
+
+    public void decreaseIndent() 
+    {
+        indent = indent.substring(0, indent.length() - INDENT.length());
+    }
+
+    public void setOutputStream(PrintStream s) 
+    {
+        stream = s;
+    }
+
+    public void write(String s) 
+    {
+        stream.print((newLine ? indent : "") + s);
+        newLine = false;
+    }
+
+    public void writeLine(String s) 
+    {
+        stream.println((newLine ? indent : "") + s);
+        newLine = true;
+        lines++;
+    }
+
+    public void writeLine() 
+    {
+        stream.println();
+        lines++;
+    }
+
+    public int getLineCount() 
+    {
+        return lines;
+    }
+}
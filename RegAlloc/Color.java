@@ -0,0 +1,608 @@
+package RegAlloc;
+import Graph.*;
+import Temp.*;
+import java.util.*;
+
+/**
+ * Graph coloring by iterated register coalescing (George and Appel,
+ * "Iterated Register Coalescing", TOPLAS 18(3), 1996), following the
+ * pseudocode of Appel, "Modern Compiler Implementation in Java", 2nd ed.,
+ * section 11.4, from Build through AssignColors.
+ * There are no precolored nodes: every node of the interference graph
+ * gets one of the given registers, or is reported as a spill.  Spilled
+ * nodes are not rewritten; the caller keeps them in memory.
+ *
+ * Potential spills are chosen by the lowest spillCost/degree.
+ */
+
+public class Color implements TempMap
+{
+    // node states
+    private static final int INITIAL = 0, SIMPLIFY = 1, FREEZE = 2, SPILL = 3,
+                             SPILLED = 4, COALESCED = 5, COLORED = 6, SELECT = 7;
+
+    // move states
+    private static final int WORKLIST = 0, ACTIVE = 1, COALESCED_MOVE = 2,
+                             CONSTRAINED = 3, FROZEN = 4;
+
+    private final InterferenceGraph ig;
+    private final String[] registers;
+    private final int K;
+
+    private final Node[] nodes;
+    private final int n;
+    private final int[] state;
+    private final int[] degree;
+    private final int[] alias;
+    private final int[] color;
+    private final int[][] adjList;
+    private final int[] adjCount;
+    private final EdgeSet adjSet;   // edges (lower, higher) of the interference graph
+
+    private final int[] moveSrc;
+    private final int[] moveDst;
+    private final int[] moveState;
+    private final int[][] moveList;
+    private final int[] moveCount;
+
+    private final Worklist simplifyWorklist;
+    private final Worklist freezeWorklist;
+    private final Worklist spillWorklist;
+    private final Worklist worklistMoves;
+    private final Worklist activeMoves;
+
+    private final int[] selectStack;
+
+    // scratch for conservative, all false between calls
+    private final boolean[] seen;
+    private int selectTop = 0;
+
+    private int spillCount = 0;
+
+    public Color(InterferenceGraph ig, String[] registers)
+    {
+        this.ig = ig;
+        this.registers = registers;
+        K = registers.length;
+
+        n = ig.nodecount;
+        nodes = new Node[n];
+        for (NodeList p = ig.nodes(); p != null; p = p.tail)
+            nodes[p.head.mykey] = p.head;
+
+        state = new int[n];
+        degree = new int[n];
+        alias = new int[n];
+        color = new int[n];
+        adjList = new int[n][];
+        adjCount = new int[n];
+        adjSet = new EdgeSet();
+        seen = new boolean[n];
+
+        List<int[]> moves = new ArrayList<>();
+        for (MoveList m = ig.moves(); m != null; m = m.tail)
+            moves.add(new int[] { m.src.mykey, m.dst.mykey });
+
+        // keep the moves in the order they were recorded
+        Collections.reverse(moves);
+
+        int moveTotal = moves.size();
+        moveSrc = new int[moveTotal];
+        moveDst = new int[moveTotal];
+        moveState = new int[moveTotal];
+        moveList = new int[n][];
+        moveCount = new int[n];
+
+        simplifyWorklist = new Worklist(n);
+        freezeWorklist = new Worklist(n);
+        spillWorklist = new Worklist(n);
+        worklistMoves = new Worklist(moveTotal);
+        activeMoves = new Worklist(moveTotal);
+
+        selectStack = new int[n];
+
+        for (int i = 0; i < n; i++)
+        {
+            adjList[i] = new int[4];
+            moveList[i] = new int[2];
+            alias[i] = i;
+            color[i] = -1;
+        }
+
+        build(moves);
+        makeWorklist();
+
+        do
+        {
+            if (!simplifyWorklist.isEmpty())
+                simplify();
+            else if (!worklistMoves.isEmpty())
+                coalesce();
+            else if (!freezeWorklist.isEmpty())
+                freeze();
+            else if (!spillWorklist.isEmpty())
+                selectSpill();
+        }
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty() ||
+               !freezeWorklist.isEmpty() || !spillWorklist.isEmpty());
+
+        assignColors();
+    }
+
+    /**
+    * The register assigned to t, or null if t was spilled.
+    */
+    @Override
+    public String tempMap(Temp t)
+    {
+        int c = color[ig.tnode(t).mykey];
+        return c < 0 ? null : registers[c];
+    }
+
+    /**
+    * The index into the register array assigned to node, or -1 if spilled.
+    */
+    public int color(Node node)
+    {
+        return color[node.mykey];
+    }
+
+    public TempList spills()
+    {
+        TempList spills = null;
+
+        for (int i = n - 1; i >= 0; i--)
+        {
+            if (color[i] < 0)
+                spills = new TempList(ig.gtemp(nodes[i]), spills);
+        }
+
+        return spills;
+    }
+
+    public int spillCount()
+    {
+        return spillCount;
+    }
+
+    private void build(List<int[]> moves)
+    {
+        for (int m = 0; m < moves.size(); m++)
+        {
+            moveSrc[m] = moves.get(m)[0];
+            moveDst[m] = moves.get(m)[1];
+            addMove(moveSrc[m], m);
+            addMove(moveDst[m], m);
+            moveState[m] = WORKLIST;
+            worklistMoves.add(m);
+        }
+
+        for (int u = 0; u < n; u++)
+        {
+            for (NodeList p = nodes[u].adj(); p != null; p = p.tail)
+                addEdge(u, p.head.mykey);
+        }
+    }
+
+    private void addMove(int node, int move)
+    {
+        if (moveCount[node] == moveList[node].length)
+            moveList[node] = Arrays.copyOf(moveList[node], moveCount[node] * 2);
+
+        moveList[node][moveCount[node]++] = move;
+    }
+
+    private void addEdge(int u, int v)
+    {
+        if (u != v && adjSet.add(Math.min(u, v), Math.max(u, v)))
+        {
+            appendAdj(u, v);
+            appendAdj(v, u);
+            degree[u]++;
+            degree[v]++;
+        }
+    }
+
+    private void appendAdj(int u, int v)
+    {
+        if (adjCount[u] == adjList[u].length)
+            adjList[u] = Arrays.copyOf(adjList[u], adjCount[u] * 2);
+
+        adjList[u][adjCount[u]++] = v;
+    }
+
+    private void makeWorklist()
+    {
+        for (int i = 0; i < n; i++)
+        {
+            if (degree[i] >= K)
+                push(spillWorklist, i, SPILL);
+            else if (moveRelated(i))
+                push(freezeWorklist, i, FREEZE);
+            else
+                push(simplifyWorklist, i, SIMPLIFY);
+        }
+    }
+
+    private void push(Worklist list, int node, int newState)
+    {
+        list.add(node);
+        state[node] = newState;
+    }
+
+    // adjList[node] \ (selectStack U coalescedNodes)
+    private boolean adjacent(int node)
+    {
+        return state[node] != SELECT && state[node] != COALESCED;
+    }
+
+    private boolean moveRelated(int node)
+    {
+        for (int i = 0; i < moveCount[node]; i++)
+        {
+            int m = moveList[node][i];
+
+            if (moveState[m] == ACTIVE || moveState[m] == WORKLIST)
+                return true;
+        }
+
+        return false;
+    }
+
+    private void simplify()
+    {
+        int node = simplifyWorklist.pop();
+        selectStack[selectTop++] = node;
+        state[node] = SELECT;
+
+        for (int i = 0; i < adjCount[node]; i++)
+        {
+            int m = adjList[node][i];
+
+            if (adjacent(m))
+                decrementDegree(m);
+        }
+    }
+
+    private void decrementDegree(int m)
+    {
+        int d = degree[m]--;
+
+        if (d == K)
+        {
+            enableMoves(m);
+
+            for (int i = 0; i < adjCount[m]; i++)
+            {
+                int a = adjList[m][i];
+
+                if (adjacent(a))
+                    enableMoves(a);
+            }
+
+            if (state[m] == SPILL)
+            {
+                spillWorklist.remove(m);
+
+                if (moveRelated(m))
+                    push(freezeWorklist, m, FREEZE);
+                else
+                    push(simplifyWorklist, m, SIMPLIFY);
+            }
+        }
+    }
+
+    private void enableMoves(int node)
+    {
+        for (int i = 0; i < moveCount[node]; i++)
+        {
+            int m = moveList[node][i];
+
+            if (moveState[m] == ACTIVE)
+            {
+                activeMoves.remove(m);
+                moveState[m] = WORKLIST;
+                worklistMoves.add(m);
+            }
+        }
+    }
+
+    private void coalesce()
+    {
+        int m = worklistMoves.pop();
+        int u = getAlias(moveDst[m]);
+        int v = getAlias(moveSrc[m]);
+
+        if (u == v)
+        {
+            moveState[m] = COALESCED_MOVE;
+            addWorkList(u);
+        }
+        else if (adjSet.contains(Math.min(u, v), Math.max(u, v)))
+        {
+            moveState[m] = CONSTRAINED;
+            addWorkList(u);
+            addWorkList(v);
+        }
+        else if (conservative(u, v))
+        {
+            moveState[m] = COALESCED_MOVE;
+            combine(u, v);
+            addWorkList(u);
+        }
+        else
+        {
+            moveState[m] = ACTIVE;
+            activeMoves.add(m);
+        }
+    }
+
+    private void addWorkList(int u)
+    {
+        if (state[u] == FREEZE && !moveRelated(u) && degree[u] < K)
+        {
+            freezeWorklist.remove(u);
+            push(simplifyWorklist, u, SIMPLIFY);
+        }
+    }
+
+    // Briggs: the combined node has fewer than K neighbors of significant degree
+    private boolean conservative(int u, int v)
+    {
+        int k = 0;
+
+        for (int node : new int[] { u, v })
+        {
+            for (int i = 0; i < adjCount[node]; i++)
+            {
+                int a = adjList[node][i];
+
+                if (adjacent(a) && degree[a] >= K && !seen[a])
+                {
+                    seen[a] = true;
+                    k++;
+                }
+            }
+        }
+
+        for (int node : new int[] { u, v })
+        {
+            for (int i = 0; i < adjCount[node]; i++)
+                seen[adjList[node][i]] = false;
+        }
+
+        return k < K;
+    }
+
+    private int getAlias(int node)
+    {
+        while (state[node] == COALESCED)
+            node = alias[node];
+
+        return node;
+    }
+
+    private void combine(int u, int v)
+    {
+        if (state[v] == FREEZE)
+            freezeWorklist.remove(v);
+        else if (state[v] == SPILL)
+            spillWorklist.remove(v);
+        else
+            simplifyWorklist.remove(v);
+
+        state[v] = COALESCED;
+        alias[v] = u;
+
+        for (int i = 0; i < moveCount[v]; i++)
+            addMove(u, moveList[v][i]);
+
+        enableMoves(v);
+
+        for (int i = 0; i < adjCount[v]; i++)
+        {
+            int t = adjList[v][i];
+
+            if (adjacent(t))
+            {
+                addEdge(t, u);
+                decrementDegree(t);
+            }
+        }
+
+        if (degree[u] >= K && state[u] == FREEZE)
+        {
+            freezeWorklist.remove(u);
+            push(spillWorklist, u, SPILL);
+        }
+    }
+
+    private void freeze()
+    {
+        int u = freezeWorklist.pop();
+        push(simplifyWorklist, u, SIMPLIFY);
+        freezeMoves(u);
+    }
+
+    private void freezeMoves(int u)
+    {
+        for (int i = 0; i < moveCount[u]; i++)
+        {
+            int m = moveList[u][i];
+
+            if (moveState[m] != ACTIVE && moveState[m] != WORKLIST)
+                continue;
+
+            int x = moveSrc[m];
+            int y = moveDst[m];
+            int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+
+            if (moveState[m] == ACTIVE)
+                activeMoves.remove(m);
+            else
+                worklistMoves.remove(m);
+
+            moveState[m] = FROZEN;
+
+            if (state[v] == FREEZE && !moveRelated(v) && degree[v] < K)
+            {
+                freezeWorklist.remove(v);
+                push(simplifyWorklist, v, SIMPLIFY);
+            }
+        }
+    }
+
+    private void selectSpill()
+    {
+        int best = -1;
+        double bestWeight = Double.MAX_VALUE;
+
+        for (int node : spillWorklist.toArray())
+        {
+            double weight = (double) ig.spillCost(nodes[node]) / degree[node];
+
+            if (weight < bestWeight || (weight == bestWeight && node < best))
+            {
+                best = node;
+                bestWeight = weight;
+            }
+        }
+
+        spillWorklist.remove(best);
+        push(simplifyWorklist, best, SIMPLIFY);
+        freezeMoves(best);
+    }
+
+    private void assignColors()
+    {
+        boolean[] okColors = new boolean[K];
+
+        while (selectTop > 0)
+        {
+            int node = selectStack[--selectTop];
+            Arrays.fill(okColors, true);
+
+            for (int i = 0; i < adjCount[node]; i++)
+            {
+                int w = getAlias(adjList[node][i]);
+
+                if (state[w] == COLORED)
+                    okColors[color[w]] = false;
+            }
+
+            int c = 0;
+            while (c < K && !okColors[c])
+                c++;
+
+            if (c == K)
+            {
+                state[node] = SPILLED;
+                spillCount++;
+            }
+            else
+            {
+                state[node] = COLORED;
+                color[node] = c;
+            }
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            if (state[i] == COALESCED)
+            {
+                int a = getAlias(i);
+                color[i] = color[a];
+
+                if (color[i] < 0)
+                    spillCount++;
+            }
+        }
+    }
+
+    /**
+    * A set of integers with O(1) add, remove and membership, that
+    * hands its elements out in insertion order (minus removals).
+    */
+    private static class Worklist
+    {
+        private int[] items;
+        private final int[] position;
+        private int head = 0, tail = 0, count = 0;
+
+        Worklist(int capacity)
+        {
+            items = new int[Math.max(capacity, 1)];
+            position = new int[capacity];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() { return count == 0; }
+
+        void add(int x)
+        {
+            if (position[x] >= 0)
+                return;
+
+            if (tail == items.length)
+            {
+                // compact, dropping removed slots
+                int k = 0;
+                for (int i = head; i < tail; i++)
+                {
+                    if (items[i] >= 0)
+                    {
+                        items[k] = items[i];
+                        position[items[k]] = k;
+                        k++;
+                    }
+                }
+
+                head = 0;
+                tail = k;
+
+                if (tail == items.length)
+                    items = Arrays.copyOf(items, items.length * 2);
+            }
+
+            position[x] = tail;
+            items[tail++] = x;
+            count++;
+        }
+
+        void remove(int x)
+        {
+            if (position[x] < 0)
+                return;
+
+            items[position[x]] = -1;
+            position[x] = -1;
+            count--;
+        }
+
+        int pop()
+        {
+            while (items[head] < 0)
+                head++;
+
+            int x = items[head++];
+            position[x] = -1;
+            count--;
+
+            return x;
+        }
+
+        int[] toArray()
+        {
+            int[] live = new int[count];
+            int k = 0;
+
+            for (int i = head; i < tail; i++)
+            {
+                if (items[i] >= 0)
+                    live[k++] = items[i];
+            }
+
+            return live;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package RegAlloc;
+import Graph.*;
+import Temp.*;
+import java.util.*;
+
+/**
+ * An interference graph over a fixed number of variables, numbered
+ * 0..count-1.  Each variable gets one node and one Temp; edges and
+ * moves are added by whoever computed the liveness.
+ */
+
+public class TempInterferenceGraph extends InterferenceGraph 
+{
+    private final Node[] nodes;
+    private final Temp[] temps;
+    private final Map<Temp, Node> tnodes = new HashMap<>();
+    private final int[] costs;
+    private MoveList moves;
+
+    public TempInterferenceGraph(int count) 
+    {
+        nodes = new Node[count];
+        temps = new Temp[count];
+        costs = new int[count];
+
+        for (int i = 0; i < count; i++) 
+        {
+            nodes[i] = newNode();
+            temps[i] = new Temp();
+            tnodes.put(temps[i], nodes[i]);
+            costs[i] = 1;
+        }
+    }
+
+    public int size() { return nodes.length; }
+    public Node node(int id) { return nodes[id]; }
+    public Temp temp(int id) { return temps[id]; }
+    public int id(Node node) { return node.mykey; }
+
+    /**
+    * Record that variables a and b are live at the same time.
+    */
+    public void addInterference(int a, int b) 
+    {
+        if (a != b && !nodes[a].adj(nodes[b]))
+            addEdge(nodes[a], nodes[b]);
+    }
+
+    /**
+    * Record a move "dst = src" between two variables.
+    */
+    public void addMove(int dst, int src) 
+    {
+        if (dst != src)
+            moves = new MoveList(nodes[src], nodes[dst], moves);
+    }
+
+    public void setSpillCost(int id, int cost) 
+    {
+        costs[id] = cost;
+    }
+
+    @Override
+    public Node tnode(Temp temp) { return tnodes.get(temp); }
+
+    @Override
+    public Temp gtemp(Node node) { return temps[node.mykey]; }
+
+    @Override
+    public MoveList moves() { return moves; }
+
+    @Override
+    public int spillCost(Node node) { return costs[node.mykey]; }
+}
@@ -0,0 +1,260 @@
+import cs132.vapor.ast.*;
+import cs132.vapor.ast.VInstr.Visitor;
+
+import java.util.*;
+
+class RegAllocHelper 
+{
+    private RegAllocHelper() 
+    {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static FlowGraph generateFlowGraph(VFunction func) 
+    {
+        FlowGraph graph = new FlowGraph();
+        List<FlowGraphNode> nodes = new ArrayList<>();
+
+        for (VInstr instr : func.body) 
+        {
+            Set<String> def = new HashSet<>();
+            Set<String> use = new HashSet<>();
+
+            instr.accept(new VInstr.Visitor<RuntimeException>() 
+            {
+                @Override
+                public void visit(VAssign vAssign) 
+                {
+                    def.add(vAssign.dest.toString());
+
+                    if (vAssign.source instanceof VVarRef) 
+                    {
+                        use.add(vAssign.source.toString());
+                    }
+                }
+
+                @Override
+                public void visit(VCall vCall) 
+                {
+                    def.add(vCall.dest.toString());
+
+                    if (vCall.addr instanceof VAddr.Var) 
+                    {
+                        use.add(vCall.addr.toString());
+                    }
+
+                    for (VOperand arg : vCall.args) 
+                    {
+                        if (arg instanceof VVarRef) 
+                        {
+                            use.add(arg.toString());
+                        }
+                    }
+                }
+
+                @Override
+                public void visit(VBuiltIn vBuiltIn) 
+                {
+                    if (vBuiltIn.dest != null)
+                        def.add(vBuiltIn.dest.toString());
+
+                    for (VOperand arg : vBuiltIn.args) 
+                    {
+                        if (arg instanceof VVarRef) 
+                        {
+                            use.add(arg.toString());
+                        }
+                    }
+                }
+
+                @Override
+                public void visit(VMemWrite vMemWrite) 
+                {
+                    VMemRef.Global ref = (VMemRef.Global) vMemWrite.dest;
+                    use.add(ref.base.toString()); // not def but use
+
+                    if (vMemWrite.source instanceof VVarRef) 
+                    {
+                        use.add(vMemWrite.source.toString());
+                    }
+                }
+
+                @Override
+                public void visit(VMemRead vMemRead) 
+                {
+                    def.add(vMemRead.dest.toString());
+
+                    VMemRef.Global ref = (VMemRef.Global) vMemRead.source;
+                    use.add(ref.base.toString());
+                }
+
+                @Override
+                public void visit(VBranch vBranch) 
+                {
+                    if (vBranch.value instanceof VVarRef) 
+                    {
+                        use.add(vBranch.value.toString());
+                    }
+
+                    // the branch target is label, thus no use produced.
+                }
+
+                @Override
+                public void visit(VGoto vGoto) 
+                {
+                    if (vGoto.target instanceof VAddr.Var) 
+                    {
+                        use.add(vGoto.target.toString());
+                    }
+                }
+
+                @Override
+                public void visit(VReturn vReturn) 
+                {
+                    if (vReturn.value != null) 
+                    {
+                        if (vReturn.value instanceof VVarRef) 
+                        {
+                            use.add(vReturn.value.toString());
+                        }
+                    }
+                }
+            });
+
+            nodes.add(graph.newNode(instr, def, use));
+        }
+
+        for (int i = 0; i < func.body.length; i++) 
+        {
+            VInstr instr = func.body[i];
+            FlowGraphNode prev = i > 0 ? nodes.get(i - 1) : null;
+            FlowGraphNode cur = nodes.get(i);
+
+            // Edge from the prev instr to current instr.
+            if (prev != null)
+                graph.addEdge(prev, cur);
+
+            if (instr instanceof VBranch) 
+            {
+                VLabelRef<VCodeLabel> target = ((VBranch) instr).target;
+                FlowGraphNode to = nodes.get(target.getTarget().instrIndex);
+                graph.addEdge(cur, to);
+            } 
+            else if (instr instanceof VGoto) 
+            {
+                // For gotos, we only allow goto labels.
+                VLabelRef<VCodeLabel> target = ((VAddr.Label<VCodeLabel>) ((VGoto) instr).target).label;
+                FlowGraphNode to = nodes.get(target.getTarget().instrIndex);
+                graph.addEdge(cur, to);
+            }
+        }
+
+        graph.numberVariables(func.params);
+
+        return graph;
+    }
+
+    public static List<Interval> generateLiveIntervals(FlowGraph graph, Liveness liveness) 
+    {
+        Symbol.SymbolTable symbols = graph.getSymbols();
+        Interval[] intervals = new Interval[symbols.size()];
+
+        for (FlowGraphNode n : graph.getNodes()) 
+        {
+            // active[n] = def[n] \/ in[n]
+            int i = n.getIndex();
+            long[] active = liveness.getInBits(i).clone();
+
+            for (int id : n.getDefIds())
+                Liveness.add(active, id);
+
+            for (int w = 0; w < active.length; w++) 
+            {
+                for (long word = active[w]; word != 0; word &= word - 1) 
+                {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(word);
+
+                    if (intervals[id] != null) // update end
+                    { 
+                        intervals[id].setEnd(i);
+                    } 
+                    else // create new interval
+                    { 
+                        intervals[id] = new Interval(id, symbols.name(id), i, i);
+                    }
+                }
+            }
+        }
+
+        List<Interval> list = new ArrayList<>();
+        for (Interval interval : intervals) 
+        {
+            if (interval != null)
+                list.add(interval);
+        }
+
+        return list;
+    }
+
+    // Stack slots of the spilled variables, given by id, as names to slots. Two
+    // of them share a slot unless their live intervals overlap: taking the
+    // intervals by increasing start, each goes into the lowest slot whose last
+    // interval has ended, which takes as many slots as there are intervals
+    // overlapping at the busiest node.
+    public static Map<String, Integer> packStackSlots(List<Interval> intervals, Collection<Integer> spilled) 
+    {
+        Set<Integer> wanted = new HashSet<>(spilled);
+        List<Interval> sorted = new ArrayList<>();
+
+        for (Interval i : intervals) 
+        {
+            if (wanted.contains(i.getId()))
+                sorted.add(i);
+        }
+
+        sorted.sort(Comparator.comparingInt(Interval::getStart));
+
+        // End of the last interval in each slot
+        List<Integer> ends = new ArrayList<>();
+        Map<String, Integer> slots = new HashMap<>();
+
+        for (Interval i : sorted) 
+        {
+            int slot = 0;
+            while (slot < ends.size() && ends.get(slot) >= i.getStart())
+                slot++;
+
+            if (slot == ends.size())
+                ends.add(i.getEnd());
+            else
+                ends.set(slot, i.getEnd());
+
+            slots.put(i.getVar(), slot);
+        }
+
+        return slots;
+    }
+
+    public static String in(int offset) 
+    {
+        return "in[" + Integer.toString(offset) + "]";
+    }
+
+    public static String out(int offset) 
+    {
+        return "out[" + Integer.toString(offset) + "]";
+    }
+
+    public static String local(int offset) 
+    {
+        return "local[" + Integer.toString(offset) + "]";
+    }
+
+    public static String memoryReference(Register reg, int offset) 
+    {
+        if (offset > 0)
+            return "[" + reg.toString() + "+" + Integer.toString(offset) + "]";
+        else
+            return "[" + reg.toString() + "]";
+    }
+}
@@ -0,0 +1,104 @@
+class Register 
+{
+    // Registers by ordinal. Ordinals follow the preference order of the pools
+    // ($t before $s, then $v before $a), so a pool hands out its lowest free bit.
+    private static final Register[] byOrdinal = new Register[23];
+
+    // Callee-saved
+    public static final Register s0 = new Register("s0", 9);
+    public static final Register s1 = new Register("s1", 10);
+    public static final Register s2 = new Register("s2", 11);
+    public static final Register s3 = new Register("s3", 12);
+    public static final Register s4 = new Register("s4", 13);
+    public static final Register s5 = new Register("s5", 14);
+    public static final Register s6 = new Register("s6", 15);
+    public static final Register s7 = new Register("s7", 16);
+    
+    // Caller-saved
+    public static final Register t0 = new Register("t0", 0);
+    public static final Register t1 = new Register("t1", 1);
+    public static final Register t2 = new Register("t2", 2);
+    public static final Register t3 = new Register("t3", 3);
+    public static final Register t4 = new Register("t4", 4);
+    public static final Register t5 = new Register("t5", 5);
+    public static final Register t6 = new Register("t6", 6);
+    public static final Register t7 = new Register("t7", 7);
+    public static final Register t8 = new Register("t8", 8);
+    
+    // Argument passing
+    public static final Register a0 = new Register("a0", 19);
+    public static final Register a1 = new Register("a1", 20);
+    public static final Register a2 = new Register("a2", 21);
+    public static final Register a3 = new Register("a3", 22);
+    
+    // Return value/Temporary loading
+    public static final Register v0 = new Register("v0", 17);
+    public static final Register v1 = new Register("v1", 18);
+    
+    private final String reg;
+    private final int ordinal;
+    
+    private Register(String r, int o) 
+    {
+        reg = r;
+        ordinal = o;
+        byOrdinal[o] = this;
+    }
+
+    public static Register fromOrdinal(int o) 
+    {
+        return byOrdinal[o];
+    }
+
+    public int ordinal() 
+    {
+        return ordinal;
+    }
+
+    public int bit() 
+    {
+        return 1 << ordinal;
+    }
+    
+    public boolean isCallerSaved() 
+    {
+        return reg.startsWith("t");
+    }
+    
+    public boolean isCalleeSaved() 
+    {
+        return reg.startsWith("s");
+    }
+    
+    public boolean isArgumentPassing() 
+    {
+        return reg.startsWith("a");
+    }
+    
+    public boolean isReturnOrLoading() 
+    {
+        return reg.startsWith("v");
+    }
+    
+    @Override
+    public String toString() 
+    {
+        return "$" + reg;
+    }
+    
+    @Override
+    public int hashCode() 
+    {
+        return ordinal;
+    }
+    
+    @Override
+    public boolean equals(Object obj) 
+    {
+        if (obj == null || !(obj instanceof Register))
+            return false;
+    
+        Register rhs = (Register) obj;
+        return ordinal == rhs.ordinal;
+    }
+}
@@ -0,0 +1,366 @@
+import cs132.vapor.ast.*;
+
+import java.util.*;
+
+class RegisterAllocator 
+{
+    public String[] registers = {"$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+                                 "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8"};
+
+    public int R = registers.length;
+
+    //callee-saved $s registers survive calls, caller-saved $t registers are cheap elsewhere
+    static final int S_REGISTERS = 0xff;
+    static final int T_REGISTERS = 0x1ff << 8;
+
+    VFunction vaporFunction;
+    LiveIntervals liveIntervals;
+
+    //registers as a bitmask over the registers array, lowest index first
+    Map<String, Integer> registerIndex;
+
+    //active, covering the current position, sorted by increasing end point;
+    //inactive, started and not yet ended but in a lifetime hole at the current position
+    LiveInterval[] active;
+    int activeCount;
+    List<LiveInterval> inactive;
+    int stackLocation;
+    int stackSlots;
+    long[] spillWeights = null;
+
+    //variables live across some call
+    long[] liveAcrossCalls = null;
+
+    public RegisterAllocator(VFunction function, LiveIntervals intervals)
+    {
+        vaporFunction = function;
+        liveIntervals = intervals;
+
+        //active ← {}, inactive ← {}
+        active = new LiveInterval[R];
+        activeCount = 0;
+        inactive = new ArrayList<>();
+
+        registerIndex = new HashMap<>();
+        for (int i = 0; i < R; i++)
+            registerIndex.put(registers[i], i);
+
+        stackLocation = 0;
+    }
+
+    public LiveInterval getAllocation(int line, String identifier)
+    {
+        return liveIntervals.get_registerAllocation(line, identifier);
+    }
+
+    public void print()
+    {
+        for (LiveInterval liveInterval : liveIntervals.liveIntervals) 
+            liveInterval.print();
+    }
+
+    //Linear scan over intervals with lifetime holes: a register held by an
+    //interval in one of its holes is free for any interval that fits in the hole
+    public void LinearScanRegisterAllocation()
+    {
+        //foreach live interval i, in order of increasing start point
+        liveIntervals.sortBy_increasingStart();
+        for (LiveInterval i : liveIntervals.liveIntervals) 
+        {
+            //ExpireOldIntervals(i), moving intervals into and out of their holes as well
+            ExpireOldIntervals(i);
+
+            //registers of active intervals, and of inactive ones that overlap i, are taken
+            int blocked = blockedByInactive(i);
+            int free = ((1 << R) - 1) & ~activeRegisters() & ~blocked;
+
+            //if no register is free then
+            if (free == 0)
+                SpillAtInterval(i, blocked); //SpillAtInterval(i)
+            else
+            {
+                //register[i] ← a free register,
+                //an $s register if i lives across a call, a $t register otherwise
+                i.register = getRegisterFromPool(free, isLiveAcrossCalls(i) ? S_REGISTERS : T_REGISTERS);
+
+                //add i to active, sorted by increasing end point
+                addActive(i);
+            }
+        }
+    }
+
+    private void ExpireOldIntervals(LiveInterval i)
+    {
+        int position = i.startPoint;
+        int kept = 0;
+
+        //foreach interval j in active: expired if endpoint[j] < startpoint[i],
+        //inactive if startpoint[i] falls in one of its holes
+        for (int j = 0; j < activeCount; j++)
+        {
+            LiveInterval interval = active[j];
+
+            if (interval.endPoint < position)
+                continue;
+
+            if (interval.covers(position))
+                active[kept++] = interval;
+            else
+                inactive.add(interval);
+        }
+
+        Arrays.fill(active, kept, activeCount, null);
+        activeCount = kept;
+
+        //foreach interval j in inactive: expired as above, active again once it covers startpoint[i]
+        Iterator<LiveInterval> iterator = inactive.iterator();
+        while (iterator.hasNext())
+        {
+            LiveInterval interval = iterator.next();
+
+            if (interval.endPoint < position)
+                iterator.remove();
+            else if (interval.covers(position))
+            {
+                iterator.remove();
+                addActive(interval);
+            }
+        }
+    }
+
+    private int activeRegisters()
+    {
+        int registers = 0;
+        for (int j = 0; j < activeCount; j++)
+            registers |= 1 << registerIndex.get(active[j].register);
+
+        return registers;
+    }
+
+    private int blockedByInactive(LiveInterval i)
+    {
+        int registers = 0;
+        for (LiveInterval interval : inactive)
+        {
+            if (interval.intersects(i))
+                registers |= 1 << registerIndex.get(interval.register);
+        }
+
+        return registers;
+    }
+
+    private void SpillAtInterval(LiveInterval i, int blocked)
+    {
+        //spill ← cheapest interval in active, the one ending last among equals,
+        //leaving out those whose register an inactive interval would still hold over i
+        int victim = -1;
+        for (int j = activeCount - 1; j >= 0; j--)
+        {
+            if ((blocked & 1 << registerIndex.get(active[j].register)) != 0)
+                continue;
+
+            if (victim == -1 || spillWeight(active[j]) < spillWeight(active[victim]))
+                victim = j;
+        }
+
+        if (victim == -1)
+        {
+            //location[i] ← new stack location
+            i.location = ++stackLocation;
+            return;
+        }
+
+        LiveInterval spill = active[victim];
+
+        //if weight[spill] < weight[i], or endpoint[spill] > endpoint[i] among equals, then
+        if (spillWeight(spill) < spillWeight(i) || (spillWeight(spill) == spillWeight(i) && spill.endPoint > i.endPoint))
+        {
+            //register[i] ← register[spill]
+            i.register = spill.register;
+            
+            //location[spill] ← new stack location
+            spill.location = ++stackLocation;
+
+            //remove spill from active
+            System.arraycopy(active, victim + 1, active, victim, activeCount - victim - 1);
+            active[--activeCount] = null;
+
+            //add i to active, sorted by increasing end point
+            addActive(i);
+        }
+        else
+        {
+            //location[i] ← new stack location
+            i.location = ++stackLocation;
+        }
+    }
+
+    //graph coloring by iterated register coalescing over the interference of the bit vector liveness
+    public void GraphColoringRegisterAllocation(LivenessBitSets liveness, List<CFG_Node> controlFlowGraph)
+    {
+        int count = liveness.symbols.size();
+        RegAlloc.TempInterferenceGraph interferenceGraph = new RegAlloc.TempInterferenceGraph(count);
+
+        for (int n = 0; n < controlFlowGraph.size(); n++)
+        {
+            CFG_Node cfgNode = controlFlowGraph.get(n);
+            int move = cfgNode.moveSourceId;
+
+            for (int d : cfgNode.defIds)
+            {
+                //a definition interferes with everything in out[n] but the source of a move into it
+                for (int w = 0; w < liveness.words; w++)
+                {
+                    for (long bits = liveness.out[n][w]; bits != 0; bits &= bits - 1)
+                    {
+                        int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+                        if (v != move)
+                            interferenceGraph.addInterference(d, v);
+                    }
+                }
+
+                //several definitions at once (the parameters) interfere with each other
+                for (int other : cfgNode.defIds)
+                    interferenceGraph.addInterference(d, other);
+
+                if (move != -1)
+                    interferenceGraph.addMove(d, move);
+            }
+        }
+
+        for (int v = 0; v < count; v++)
+        {
+            long weight = spillWeights == null ? 1 : spillWeights[v];
+            interferenceGraph.setSpillCost(v, (int) Math.min(Math.max(weight, 1), Integer.MAX_VALUE));
+        }
+
+        RegAlloc.Color color = new RegAlloc.Color(interferenceGraph, registers);
+
+        //every interval of a variable shares its color, or its stack location
+        int[] location = new int[count];
+        Arrays.fill(location, -1);
+
+        liveIntervals.sortBy_increasingStart();
+        for (LiveInterval i : liveIntervals.liveIntervals)
+        {
+            int id = i.id;
+            int c = color.color(interferenceGraph.node(id));
+
+            if (c >= 0)
+                i.register = registers[c];
+            else
+            {
+                if (location[id] == -1)
+                    location[id] = ++stackLocation;
+
+                i.location = location[id];
+            }
+        }
+    }
+
+    //stack slot coloring: two stack locations become one unless an interval of
+    //one intersects an interval of the other. Locations are taken in order of
+    //their first start, each into the lowest slot it fits, numbered from 0;
+    //emission places them past the register save area
+    public void PackStackLocations()
+    {
+        Map<Integer, List<LiveInterval>> byLocation = new LinkedHashMap<>();
+
+        liveIntervals.sortBy_increasingStart();
+        for (LiveInterval i : liveIntervals.liveIntervals)
+        {
+            if (i.location != -1)
+                byLocation.computeIfAbsent(i.location, k -> new ArrayList<>()).add(i);
+        }
+
+        List<List<LiveInterval>> slots = new ArrayList<>();
+        for (List<LiveInterval> intervals : byLocation.values())
+        {
+            int slot = 0;
+            while (slot < slots.size() && intersects(slots.get(slot), intervals))
+                slot++;
+
+            if (slot == slots.size())
+                slots.add(new ArrayList<>());
+
+            slots.get(slot).addAll(intervals);
+            for (LiveInterval i : intervals)
+                i.location = slot;
+        }
+
+        stackSlots = slots.size();
+    }
+
+    public int stackSlots()
+    {
+        return stackSlots;
+    }
+
+    private static boolean intersects(List<LiveInterval> a, List<LiveInterval> b)
+    {
+        for (LiveInterval i : a)
+        {
+            for (LiveInterval j : b)
+            {
+                if (i.intersects(j))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int spillCount()
+    {
+        return stackLocation;
+    }
+
+    //uses and definitions weighted by loop depth, see VaporFunctionVisitor.get_spillWeights
+    public void setSpillWeights(long[] weights)
+    {
+        spillWeights = weights;
+    }
+
+    private long spillWeight(LiveInterval i)
+    {
+        return spillWeights == null ? 1 : spillWeights[i.id];
+    }
+
+    //binary insertion after any interval with the same end point
+    private void addActive(LiveInterval i)
+    {
+        int lo = 0, hi = activeCount;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (active[mid].endPoint <= i.endPoint)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        System.arraycopy(active, lo, active, lo + 1, activeCount - lo);
+        active[lo] = i;
+        activeCount++;
+    }
+
+    private String getRegisterFromPool(int free, int preferred)
+    {
+        int pool = (free & preferred) != 0 ? free & preferred : free;
+
+        return registers[Integer.numberOfTrailingZeros(pool)];
+    }
+
+    //bits by symbol id, see VaporFunctionVisitor.get_liveAcrossCalls
+    public void setLiveAcrossCalls(long[] variables)
+    {
+        liveAcrossCalls = variables;
+    }
+
+    private boolean isLiveAcrossCalls(LiveInterval i)
+    {
+        return liveAcrossCalls != null && LivenessBitSets.contains(liveAcrossCalls, i.id);
+    }
+}
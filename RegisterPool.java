@@ -0,0 +1,93 @@
+class RegisterPool 
+{
+    // Bitmasks over Register ordinals
+    private final int all;
+    private int use = 0;
+    
+    private RegisterPool(Register[] regs) 
+    {
+        int mask = 0;
+        for (Register reg : regs)
+            mask |= reg.bit();
+
+        all = mask;
+    }
+    
+    // We only use t0~t7 and s0~s7. a0~a3, v0 and v1 are reserved.
+    public static RegisterPool CreateGlobalPool() 
+    {
+        Register[] regs = 
+        {
+            // Caller-saved
+            Register.t0, Register.t1, Register.t2, Register.t3,
+            Register.t4, Register.t5, Register.t6, Register.t7,
+            Register.t8,
+            // Callee-saved
+            Register.s0, Register.s1, Register.s2, Register.s3,
+            Register.s4, Register.s5, Register.s6, Register.s7
+        };
+    
+        return new RegisterPool(regs);
+    }
+    
+    // Local pool used for retrieving values from `local` stack
+    public static RegisterPool CreateLocalPool() 
+    {
+        Register[] regs = 
+        {
+            Register.v0, Register.v1,
+            Register.a0, Register.a1, Register.a2, Register.a3
+        };
+    
+        return new RegisterPool(regs);
+    }
+    
+    public boolean contains(Register reg) 
+    {
+        return (all & reg.bit()) != 0;
+    }
+    
+    public boolean inUse(Register reg) 
+    {
+        return (use & reg.bit()) != 0;
+    }
+    
+    public boolean hasFree() 
+    {
+        return (all & ~use) != 0;
+    }
+
+    public boolean isFree(Register reg) 
+    {
+        return contains(reg) && !inUse(reg);
+    }
+    
+    public Register acquire() 
+    {
+        int free = all & ~use;
+
+        if (free == 0)
+            return null;
+
+        int ordinal = Integer.numberOfTrailingZeros(free);
+        use |= 1 << ordinal;
+            
+        return Register.fromOrdinal(ordinal);
+    }
+    
+    // Take a particular register, if it is free
+    public Register acquire(Register reg) 
+    {
+        if (!isFree(reg))
+            return null;
+
+        use |= reg.bit();
+
+        return reg;
+    }
+    
+    public void release(Register reg) 
+    {
+        use &= ~reg.bit();
+    }
+}
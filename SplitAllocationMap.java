@@ -0,0 +1,111 @@
+import java.util.*;
+
+// An allocation from BinpackingAllocator, in which a variable may be in
+// different registers, or in its stack slot, at different instructions.
+class SplitAllocationMap extends AllocationMap 
+{
+    // A register to register move, a store (dst null) or a load (src null) of var
+    static class Move 
+    {
+        final Register dst;
+        final Register src;
+        final int var;
+
+        Move(Register d, Register s, int v) 
+        {
+            dst = d;
+            src = s;
+            var = v;
+        }
+
+        static Move store(int var, Register reg) 
+        {
+            return new Move(null, reg, var);
+        }
+
+        static Move load(Register reg, int var) 
+        {
+            return new Move(reg, null, var);
+        }
+
+        static Move move(Register dst, Register src) 
+        {
+            return new Move(dst, src, -1);
+        }
+    }
+
+    private final Symbol.SymbolTable symbols;
+
+    // Per instruction, and at [0] for the entry: (variable id, register ordinal or -1) pairs
+    private final int[][] located;
+
+    private final Map<Integer, List<Move>> before;
+    private final Map<Integer, List<Move>> beforeLabels;
+    private final Map<Integer, List<Move>> onJump;
+
+    public SplitAllocationMap(Symbol.SymbolTable st, Map<String, Integer> s, Map<String, String> c, Collection<Register> used, int[][] l, 
+                              Map<Integer, List<Move>> b, Map<Integer, List<Move>> bl, Map<Integer, List<Move>> j) 
+    {
+        super(new HashMap<>(), s, c, used);
+        symbols = st;
+        located = l;
+        before = b;
+        beforeLabels = bl;
+        onJump = j;
+    }
+
+    @Override
+    public Register lookupRegister(String s, int position) 
+    {
+        int[] pairs = located[position + 1];
+        int id = symbols.lookup(s);
+
+        for (int k = 0; pairs != null && k < pairs.length; k += 2) 
+        {
+            if (pairs[k] == id)
+                return pairs[k + 1] < 0 ? null : Register.fromOrdinal(pairs[k + 1]);
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<String[]> movesBefore(int position) 
+    {
+        return render(before.get(position));
+    }
+
+    @Override
+    public List<String[]> movesBeforeLabels(int position) 
+    {
+        return render(beforeLabels.get(position));
+    }
+
+    @Override
+    public List<String[]> movesOnJump(int position) 
+    {
+        return render(onJump.get(position));
+    }
+
+    private List<String[]> render(List<Move> moves) 
+    {
+        if (moves == null)
+            return Collections.emptyList();
+
+        List<String[]> assignments = new ArrayList<>(moves.size());
+
+        for (Move m : moves) 
+        {
+            // A constant is not stored, and is loaded as its literal or label
+            String constant = m.var < 0 ? null : lookupConstant(symbols.name(m.var));
+
+            if (constant != null && m.dst == null)
+                continue;
+
+            String slot = m.var < 0 ? null : constant != null ? constant : RegAllocHelper.local(lookupStack(symbols.name(m.var)));
+            assignments.add(new String[] { m.dst != null ? m.dst.toString() : slot, m.src != null ? m.src.toString() : slot });
+        }
+
+        return assignments;
+    }
+}
@@ -0,0 +1,44 @@
+package Symbol;
+import java.util.*;
+
+/**
+ * Interns the variable names of one function as dense integer ids
+ * 0..size()-1, in the order they are first seen.  Analyses index
+ * arrays and bit sets by id and only go back to the name when code
+ * is emitted.
+ */
+
+public class SymbolTable
+{
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+    * The id of name, giving it the next one if it is new.
+    */
+    public int intern(String name)
+    {
+        Integer id = ids.get(name);
+
+        if (id == null)
+        {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+
+        return id;
+    }
+
+    /**
+    * The id of name, or -1 if it was never interned.
+    */
+    public int lookup(String name)
+    {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) { return names.get(id); }
+    public int size() { return names.size(); }
+}
@@ -1,13 +1,15 @@
 package Temp;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Temp  
 {
-    private static int count;
+    // shared by every thread that builds interference graphs
+    private static final AtomicInteger count = new AtomicInteger();
     private int num;
 
     public Temp() 
     {
-        num=count++;
+        num=count.getAndIncrement();
     }
 
     public String toString() {return "t" + num;}
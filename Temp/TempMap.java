@@ -0,0 +1,11 @@
+package Temp;
+
+/**
+ * A mapping from temporaries to the names they print as, such as the
+ * register a temporary has been assigned to.
+ */
+
+public interface TempMap 
+{
+    public String tempMap(Temp t);
+}
@@ -0,0 +1,100 @@
+class V2VMOptions
+{
+    //--liveness=treeset falls back to the TreeSet liveness, --liveness=nodes solves the bit sets
+    //node by node rather than by basic blocks, --check-liveness compares with the TreeSet liveness
+    boolean treeSetLiveness = false;
+    boolean blockLiveness = true;
+    boolean checkLiveness = false;
+
+    //--allocator=coloring selects graph coloring over linear scan,
+    //--allocation-stats reports spills per function on stderr
+    boolean coloring = false;
+    boolean allocationStats = false;
+
+    //--parallel[=N] compiles the functions on N threads (all processors by default), 0 one after another
+    int parallelism = 0;
+
+    //--cache=DIR keeps translated functions in DIR, at most --cache-size=MB megabytes (64 by default),
+    //--cache-stats reports hits and misses on stderr, --cache-verify recompiles hits and compares
+    String cacheDirectory = null;
+    long cacheCapacity = 64L << 20;
+    boolean cacheStats = false;
+    boolean cacheVerify = false;
+
+    //--stats reports time, allocation and counts per phase and function on stderr, --stats=FILE as JSON
+    boolean stats = false;
+    String statsFile = null;
+
+    static final String USAGE = "usage: java V2VM [--liveness=treeset|nodes|blocks] [--check-liveness] [--allocator=linearscan|coloring]\n"
+                              + "                 [--allocation-stats] [--parallel[=N]] [--cache=DIR] [--cache-size=MB] [--cache-stats]\n"
+                              + "                 [--cache-verify] [--stats[=FILE]] < in.vapor > out.vaporm";
+
+    //throws IllegalArgumentException for an option it does not know, rather than
+    //quietly compiling some other way than asked
+    static V2VMOptions parse(String[] args)
+    {
+        V2VMOptions options = new V2VMOptions();
+
+        for (String arg : args) 
+        {
+            if (arg.equals("--liveness=treeset"))
+                options.treeSetLiveness = true;
+            else if (arg.equals("--liveness=nodes"))
+                options.blockLiveness = false;
+            else if (arg.equals("--liveness=blocks"))
+                options.blockLiveness = true;
+            else if (arg.equals("--check-liveness"))
+                options.checkLiveness = true;
+            else if (arg.equals("--allocator=coloring"))
+                options.coloring = true;
+            else if (arg.equals("--allocator=linearscan"))
+                options.coloring = false;
+            else if (arg.equals("--allocation-stats"))
+                options.allocationStats = true;
+            else if (arg.equals("--parallel"))
+                options.parallelism = Runtime.getRuntime().availableProcessors();
+            else if (arg.startsWith("--parallel="))
+                options.parallelism = Integer.parseInt(arg.substring("--parallel=".length()));
+            else if (arg.startsWith("--cache="))
+                options.cacheDirectory = arg.substring("--cache=".length());
+            else if (arg.startsWith("--cache-size="))
+                options.cacheCapacity = cacheSize(arg.substring("--cache-size=".length()));
+            else if (arg.equals("--cache-stats"))
+                options.cacheStats = true;
+            else if (arg.equals("--cache-verify"))
+                options.cacheVerify = true;
+            else if (arg.equals("--stats"))
+                options.stats = true;
+            else if (arg.startsWith("--stats="))
+            {
+                options.stats = true;
+                options.statsFile = arg.substring("--stats=".length());
+            }
+            else if (arg.startsWith("--"))
+                throw new IllegalArgumentException("unknown option " + arg);
+        }
+
+        return options;
+    }
+
+    //the bytes of --cache-size=MB: a whole number of megabytes, at least one,
+    //and few enough that the byte count still fits in a long
+    static long cacheSize(String value)
+    {
+        long megabytes;
+
+        try
+        {
+            megabytes = Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            megabytes = 0;
+        }
+
+        if (megabytes < 1 || megabytes > Long.MAX_VALUE >> 20)
+            throw new IllegalArgumentException("--cache-size takes megabytes from 1 to " + (Long.MAX_VALUE >> 20) + ", not " + value);
+
+        return megabytes << 20;
+    }
+}
@@ -0,0 +1,63 @@
+class VMOptions 
+{
+    // --liveness=iterative selects the original round-robin solver and
+    // --liveness=worklist the node worklist, rather than solving by basic blocks;
+    // --liveness-stats reports the solver's work per function on stderr.
+    String liveness = "blocks";
+    boolean livenessStats = false;
+
+    // --allocator=coloring selects graph coloring and --allocator=binpacking
+    // second-chance binpacking, rather than linear scan;
+    // --allocation-stats reports spills per function on stderr.
+    String allocator = "linearscan";
+    boolean allocationStats = false;
+
+    // --parallel[=N] compiles the functions on N threads (all processors by default);
+    // 0 compiles them one after another.
+    int parallelism = 0;
+
+    // --stats reports time, allocation and counts per phase and function on
+    // stderr, --stats=FILE writes them to FILE as JSON.
+    boolean stats = false;
+    String statsFile = null;
+
+    static final String USAGE = "usage: java VM [--liveness=iterative|worklist|blocks] [--liveness-stats]\n"
+                              + "               [--allocator=linearscan|coloring|binpacking] [--allocation-stats]\n"
+                              + "               [--parallel[=N]] [--stats[=FILE]] < in.vapor > out.vaporm";
+
+    // An option it does not know is an IllegalArgumentException, rather than
+    // compiling some other way than asked.
+    static VMOptions parse(String[] args) 
+    {
+        VMOptions options = new VMOptions();
+
+        for (String arg : args) 
+        {
+            if (arg.equals("--liveness=iterative") || arg.equals("--liveness=worklist") || arg.equals("--liveness=blocks"))
+                options.liveness = arg.substring("--liveness=".length());
+            else if (arg.equals("--liveness-stats"))
+                options.livenessStats = true;
+            else if (arg.equals("--allocator=linearscan") || arg.equals("--allocator=coloring") || arg.equals("--allocator=binpacking"))
+                options.allocator = arg.substring("--allocator=".length());
+            else if (arg.equals("--allocation-stats"))
+                options.allocationStats = true;
+            else if (arg.equals("--parallel"))
+                options.parallelism = Runtime.getRuntime().availableProcessors();
+            else if (arg.startsWith("--parallel="))
+                options.parallelism = Integer.parseInt(arg.substring("--parallel=".length()));
+            else if (arg.equals("--stats"))
+                options.stats = true;
+            else if (arg.startsWith("--stats=")) 
+            {
+                options.stats = true;
+                options.statsFile = arg.substring("--stats=".length());
+            }
+            else if (arg.startsWith("--")) 
+            {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+
+        return options;
+    }
+}
@@ -0,0 +1,437 @@
+import cs132.vapor.ast.*;
+import cs132.vapor.ast.VInstr.Visitor;
+
+import java.io.*;
+import java.util.*;
+
+class VaporFunctionVisitor <E extends Throwable> extends Visitor<E>
+{
+    VFunction vaporFunction;
+    List<CFG_Node> controlFlowGraph;
+    Symbol.SymbolTable symbols;
+    LivenessBitSets liveness;
+    boolean livenessComputed;
+    List<Integer> callPositions;
+
+    //--liveness=treeset falls back to the original TreeSet iteration, --liveness=nodes
+    //solves the bit sets node by node instead of by basic blocks,
+    //--check-liveness runs both and reports any node where they disagree
+    boolean treeSetLiveness = false;
+    boolean blockLiveness = true;
+    boolean checkLiveness = false;
+    PrintStream err = System.err;
+
+    //CFG_Node i is stored at position i + HEADER, after the function header node (-1)
+    static final int HEADER = 1;
+
+    public void set_vaporFunction(VFunction vFunction)
+    {
+        vaporFunction = vFunction;
+        symbols = null;
+        liveness = null;
+        livenessComputed = false;
+        callPositions = new ArrayList<>();
+
+        int size = vaporFunction.body.length + vaporFunction.labels.length;
+        controlFlowGraph = new ArrayList<>(size + HEADER);
+
+        CFG_Node functionHeader = new CFG_Node(-1);
+
+        for (int i = 0; i < vaporFunction.params.length; i++) 
+            functionHeader.def.add(vaporFunction.params[i].ident);
+
+        functionHeader.add_singleSucc(-1);
+        controlFlowGraph.add(functionHeader);
+
+        for (int i = 0; i < size; i++) 
+        {
+            CFG_Node cfgNode = new CFG_Node(i);
+
+            if (i != size - 1)
+                cfgNode.add_singleSucc(i);
+
+            controlFlowGraph.add(cfgNode);
+        }
+    }
+
+    public void dump()
+    {
+        System.out.println(vaporFunction.ident);
+
+        if (liveness != null)
+        {
+            for (int i = 0; i < controlFlowGraph.size(); i++)
+            {
+                controlFlowGraph.get(i).in = liveness.toSet(liveness.in[i]);
+                controlFlowGraph.get(i).out = liveness.toSet(liveness.out[i]);
+            }
+        }
+
+        for (CFG_Node cfgNode : controlFlowGraph) 
+        {
+            System.out.println("node " + cfgNode.index + ": ");
+            cfgNode.print();
+        }
+    }
+
+    public void print()
+    {
+        System.out.println(vaporFunction.ident);
+
+        for (CFG_Node cfgNode : controlFlowGraph) 
+        {
+            for (int succ : cfgNode.succ) 
+                System.out.println(cfgNode.index + " -> " + succ);
+        }
+    }
+
+    public int getPosition(int sourcePosition)
+    {
+        return (sourcePosition - vaporFunction.sourcePos.line) - 1;
+    }
+
+    public CFG_Node get_cfgNode(int i)
+    {
+        if (i + HEADER < 0 || i + HEADER >= controlFlowGraph.size())
+            return null;
+
+        return controlFlowGraph.get(i + HEADER);
+    }
+
+    //number the variables once the CFG is complete, node by node, definitions before uses;
+    //everything after this works on the ids and only the emitter goes back to names
+    public Symbol.SymbolTable get_symbols()
+    {
+        if (symbols == null)
+        {
+            symbols = new Symbol.SymbolTable();
+
+            for (CFG_Node cfgNode : controlFlowGraph)
+            {
+                cfgNode.defIds = new int[cfgNode.def.size()];
+                cfgNode.useIds = new int[cfgNode.use.size()];
+
+                int i = 0;
+                for (String identifier : cfgNode.def)
+                    cfgNode.defIds[i++] = symbols.intern(identifier);
+
+                i = 0;
+                for (String identifier : cfgNode.use)
+                    cfgNode.useIds[i++] = symbols.intern(identifier);
+
+                cfgNode.moveSourceId = cfgNode.moveSource == null ? -1 : symbols.lookup(cfgNode.moveSource);
+            }
+        }
+
+        return symbols;
+    }
+
+    public LivenessBitSets get_liveness()
+    {
+        if (liveness == null)
+            solveLiveness();
+
+        return liveness;
+    }
+
+    private void solveLiveness()
+    {
+        liveness = new LivenessBitSets(controlFlowGraph, get_symbols());
+
+        if (blockLiveness)
+            liveness.solveByBlocks();
+        else
+            liveness.solve();
+    }
+
+    //spill weight of each variable by symbol id: (uses + defs) × 10^depth, summed over the nodes it appears in
+    public long[] get_spillWeights()
+    {
+        long[] weights = new long[get_symbols().size()];
+        int[] depth = ControlFlowGraph.LoopNest.depths(get_liveness().succ, 0);
+
+        for (int n = 0; n < controlFlowGraph.size(); n++)
+        {
+            CFG_Node cfgNode = controlFlowGraph.get(n);
+            long frequency = ControlFlowGraph.LoopNest.frequency(depth[n]);
+
+            for (int id : cfgNode.defIds)
+                weights[id] += frequency;
+
+            for (int id : cfgNode.useIds)
+                weights[id] += frequency;
+        }
+
+        return weights;
+    }
+
+    //variables in out[n] − def[n] of some call n, as bits by symbol id
+    public long[] get_liveAcrossCalls()
+    {
+        LivenessBitSets liveness = get_liveness();
+        long[] variables = new long[liveness.words];
+
+        for (int position : callPositions)
+        {
+            int n = position + HEADER;
+
+            for (int w = 0; w < liveness.words; w++)
+                variables[w] |= liveness.out[n][w] & ~liveness.def[n][w];
+        }
+
+        return variables;
+    }
+
+    void computeLiveness()
+    {
+        livenessComputed = true;
+
+        if (treeSetLiveness)
+        {
+            computeLiveness_byIteration();
+            return;
+        }
+
+        solveLiveness();
+
+        if (checkLiveness)
+        {
+            computeLiveness_byIteration();
+            compareLiveness();
+        }
+    }
+
+    private void compareLiveness()
+    {
+        for (int i = 0; i < controlFlowGraph.size(); i++) 
+        {
+            CFG_Node cfgNode = controlFlowGraph.get(i);
+            SortedSet<String> in = liveness.toSet(liveness.in[i]);
+            SortedSet<String> out = liveness.toSet(liveness.out[i]);
+
+            if (!in.equals(cfgNode.in) || !out.equals(cfgNode.out))
+            {
+                err.println("liveness mismatch in " + vaporFunction.ident + " at node " + cfgNode.index);
+                err.println("  treeset: in = " + cfgNode.in + ", out = " + cfgNode.out);
+                err.println("  bitset:  in = " + in + ", out = " + out);
+            }
+        }
+    }
+
+    //ALGORITHM 10.4. Computation of liveness by iteration.
+    private void computeLiveness_byIteration()
+    {
+        do 
+        {
+            for (CFG_Node cfgNode : controlFlowGraph)
+            {
+                //in′[n] ← in[n];
+                cfgNode.inPrime = new TreeSet<>();
+                cfgNode.inPrime.addAll(cfgNode.in);
+
+                //out′[n] ← out[n]
+                cfgNode.outPrime = new TreeSet<>();
+                cfgNode.outPrime.addAll(cfgNode.out);
+
+                //out[n] − def [n]
+                SortedSet<String> setDifference = new TreeSet<>(cfgNode.out);
+                setDifference.removeAll(cfgNode.def);
+
+                //in[n] ← use[n] ∪ (out[n] − def [n]) = in[n] ← use[n] ∪ setDifference
+                SortedSet<String> in = new TreeSet<>(cfgNode.use);
+                in.addAll(setDifference);
+                cfgNode.in = new TreeSet<>();
+                cfgNode.in.addAll(in);
+
+                //out[n] ← (U s E succ[n]) in[s]
+                SortedSet<String> out = new TreeSet<>(cfgNode.out);
+                for (int i = 0; i < cfgNode.succ.size(); i++) 
+                {
+                    out.addAll(get_cfgNode(cfgNode.succ.get(i)).in);
+                }
+                cfgNode.out= new TreeSet<>();
+                cfgNode.out.addAll(out);
+            }
+        } 
+        while (!reached_fixedPoint());
+    }
+
+    private boolean reached_fixedPoint()
+    {
+        for (CFG_Node cfgNode : controlFlowGraph) 
+        {
+            if (!(cfgNode.inPrime.equals(cfgNode.in) && cfgNode.outPrime.equals(cfgNode.out)))
+                return false;
+        }
+
+        return true;
+    }
+
+    //one backward pass over the nodes: a variable occupies node n when it is in in[n] ∪ def[n],
+    //and each run of occupied nodes is one range of its interval; the gaps are lifetime holes
+    public LiveIntervals get_liveIntervals()
+    {
+        get_symbols();
+
+        //liveness may already have been computed on its own, as a separate phase
+        if (!livenessComputed)
+            computeLiveness();
+
+        LivenessBitSets liveness = get_liveness();
+        int count = symbols.size();
+
+        //ranges of each variable as from..to pairs, latest first while walking backward
+        int[][] ranges = new int[count][];
+        int[] length = new int[count];
+
+        for (int n = controlFlowGraph.size() - 1; n >= 0; n--)
+        {
+            int position = controlFlowGraph.get(n).index;
+
+            for (int w = 0; w < liveness.words; w++)
+            {
+                for (long bits = liveness.in[n][w] | liveness.def[n][w]; bits != 0; bits &= bits - 1)
+                {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    int k = length[id];
+
+                    //extend the range that starts at the next position, or open a new one
+                    if (k > 0 && ranges[id][k - 2] == position + 1)
+                        ranges[id][k - 2] = position;
+                    else
+                    {
+                        if (ranges[id] == null)
+                            ranges[id] = new int[4];
+                        else if (k == ranges[id].length)
+                            ranges[id] = Arrays.copyOf(ranges[id], k * 2);
+
+                        ranges[id][k] = position;
+                        ranges[id][k + 1] = position;
+                        length[id] = k + 2;
+                    }
+                }
+            }
+        }
+
+        List<LiveInterval> liveIntervals = new ArrayList<>(count);
+
+        for (int id = 0; id < count; id++)
+        {
+            if (length[id] == 0)
+                continue;
+
+            //back to increasing order
+            int[] increasing = new int[length[id]];
+            for (int k = 0; k < length[id]; k += 2)
+            {
+                increasing[length[id] - k - 2] = ranges[id][k];
+                increasing[length[id] - k - 1] = ranges[id][k + 1];
+            }
+
+            liveIntervals.add(new LiveInterval(increasing, symbols.name(id), id));
+        }
+
+        return new LiveIntervals(liveIntervals, symbols);
+    }
+
+    public void visit(VAssign n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        cfgNode.def.add(n.dest.toString());
+
+        if (n.source instanceof VVarRef)
+        {
+            cfgNode.use.add(n.source.toString());
+            cfgNode.moveSource = n.source.toString();
+        }
+
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+    }
+
+    public void visit(VCall n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        callPositions.add(cfgNode.index);
+
+        cfgNode.def.add(n.dest.toString());
+
+        for (int i = 0; i < n.args.length; i++) 
+        {
+            if (n.args[i] instanceof VVarRef)
+                cfgNode.use.add(n.args[i].toString());
+        }
+
+        cfgNode.use.add(n.addr.toString());
+
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+    }
+
+    public void visit(VBuiltIn n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        if (n.dest != null)
+            cfgNode.def.add(n.dest.toString());
+
+        for (int i = 0; i < n.args.length; i++) 
+        {
+            if (n.args[i] instanceof VVarRef)
+                cfgNode.use.add(n.args[i].toString());
+        }
+
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+    }
+
+    public void visit(VMemWrite n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        VMemRef.Global globalMemoryReference = (VMemRef.Global)n.dest;
+        cfgNode.use.add(globalMemoryReference.base.toString());
+        // if (n.dest instanceof VMemRef.Global && (((VMemRef.Global) n.dest).base instanceof VAddr.Var) )
+        //     cfgNode.use.add(((VMemRef.Global) n.dest).base.toString());
+
+        if (n.source instanceof VVarRef)
+            cfgNode.use.add(n.source.toString());
+
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+    }
+
+    public void visit(VMemRead n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        cfgNode.def.add(n.dest.toString());
+
+        VMemRef.Global globalMemoryReference = (VMemRef.Global)n.source;
+        cfgNode.use.add(globalMemoryReference.base.toString());
+        // if (n.dest instanceof VMemRef.Global && (((VMemRef.Global) n.dest).base instanceof VAddr.Var) )
+        //     cfgNode.use.add(((VMemRef.Global) n.dest).base.toString());
+
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+    }
+
+    public void visit(VBranch n) throws E 
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+        cfgNode.use.add(n.value.toString());
+        cfgNode.add_singleSucc(getPosition(n.sourcePos.line));
+        cfgNode.succ.add(getPosition(n.target.getTarget().sourcePos.line));
+    }
+
+    public void visit(VGoto n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+        cfgNode.succ.add(getPosition(((VAddr.Label) n.target).label.getTarget().sourcePos.line));
+    }
+
+    public void visit(VReturn n) throws E
+    {
+        CFG_Node cfgNode = get_cfgNode(getPosition(n.sourcePos.line));
+
+        if (n.value instanceof VVarRef)
+            cfgNode.use.add(n.value.toString());
+    }
+}
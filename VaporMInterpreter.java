@@ -0,0 +1,608 @@
+import cs132.vapor.ast.*;
+import cs132.vapor.ast.VBuiltIn.Op;
+import cs132.vapor.parser.*;
+
+import java.io.*;
+import java.util.*;
+
+// Runs the VaporM that V2VM and VM emit and counts what it executes, so a
+// change to either translator can be judged by how fast its code runs rather
+// than by how long it is. Program output goes to stdout exactly as
+// "vapor.jar run -mips" prints it; the counts go to stderr, one row per
+// function:
+//
+//   calls      times the function was entered
+//   instrs     instructions executed in it, each call and ret included
+//   loads      reads of the heap and of const segments
+//   stores     writes of the heap and of const segments
+//   local r/w  reads and writes of local[], which is where spills live
+//   in, out    reads of in[] and writes of out[], arguments past $a3
+//   cost       instrs + 2 * every memory access above
+//
+// The cost model is deliberately crude: one cycle an instruction and two more
+// for each trip to memory, which is roughly the gap between an ALU op and a
+// cache hit. It is meant for comparing two translations of the same program,
+// not for predicting run time.
+//
+// Usage: java VaporMInterpreter [--limit=N] [FILE]      (stdin if no FILE)
+//
+// --limit stops a program after N instructions, as a fault, for translations
+// that never terminate.
+public class VaporMInterpreter
+{
+    static final String[] REGISTERS = {
+        "v0", "v1", "a0", "a1", "a2", "a3",
+        "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7", "t8",
+        "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7" };
+
+    static final int MEMORY_COST = 2;
+
+    // what registers and stack slots hold before anything is written to them;
+    // moving it around is fine, computing with it is a fault
+    static final Object UNDEFINED = new Object();
+
+    // A word of memory or a register holds an Integer, a Pointer, or the
+    // VFunction or VCodeLabel a label operand named.
+    static final class Pointer
+    {
+        final Object[] block;
+        final int byteOffset;
+
+        Pointer(Object[] block, int byteOffset)
+        {
+            this.block = block;
+            this.byteOffset = byteOffset;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Pointer && ((Pointer) other).block == block && ((Pointer) other).byteOffset == byteOffset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(block) * 31 + byteOffset;
+        }
+    }
+
+    // What one function did, summed over all its calls.
+    public static class Counts
+    {
+        final String name;
+        long calls;
+        long instructions;
+        long loads;
+        long stores;
+        long localReads;
+        long localWrites;
+        long inReads;
+        long outWrites;
+
+        Counts(String name)
+        {
+            this.name = name;
+        }
+
+        long memory()
+        {
+            return loads + stores + localReads + localWrites + inReads + outWrites;
+        }
+
+        public long cost()
+        {
+            return instructions + MEMORY_COST * memory();
+        }
+
+        void add(Counts other)
+        {
+            calls += other.calls;
+            instructions += other.instructions;
+            loads += other.loads;
+            stores += other.stores;
+            localReads += other.localReads;
+            localWrites += other.localWrites;
+            inReads += other.inReads;
+            outWrites += other.outWrites;
+        }
+    }
+
+    // A program fault, reported the way vapor.jar reports it.
+    static class Fault extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        Fault(String message)
+        {
+            super(message);
+        }
+    }
+
+    // One call in progress. in[] is the caller's out[].
+    static final class Activation
+    {
+        final VFunction function;
+        final Counts counts;
+        final Object[] in;
+        final Object[] out;
+        final Object[] local;
+        int pc;
+
+        Activation(VFunction function, Counts counts, Object[] in)
+        {
+            this.function = function;
+            this.counts = counts;
+            this.in = in;
+            this.out = new Object[function.stack.out];
+            this.local = new Object[function.stack.local];
+
+            Arrays.fill(out, UNDEFINED);
+            Arrays.fill(local, UNDEFINED);
+        }
+    }
+
+    private final VaporProgram program;
+    private final PrintStream out;
+    private final Object[] registers = new Object[REGISTERS.length];
+    private final Map<VDataSegment, Object[]> segments = new HashMap<>();
+    private final Counts[] counts;
+    private long limit = Long.MAX_VALUE;
+
+    public VaporMInterpreter(VaporProgram program, PrintStream out)
+    {
+        this.program = program;
+        this.out = out;
+
+        Arrays.fill(registers, UNDEFINED);
+
+        counts = new Counts[program.functions.length];
+        for (VFunction function : program.functions)
+            counts[function.index] = new Counts(function.ident);
+
+        for (VDataSegment segment : program.dataSegments)
+            segments.put(segment, new Object[segment.values.length]);
+
+        for (VDataSegment segment : program.dataSegments)
+        {
+            Object[] words = segments.get(segment);
+            for (int i = 0; i < words.length; i++)
+                words[i] = constant(segment.values[i]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        InputStream in = System.in;
+        long limit = Long.MAX_VALUE;
+
+        for (String arg : args)
+        {
+            if (arg.startsWith("--limit="))
+                limit = Long.parseLong(arg.substring("--limit=".length()));
+            else if (arg.startsWith("--"))
+                throw new IllegalArgumentException("unknown option " + arg);
+            else
+                in = new FileInputStream(arg);
+        }
+
+        VaporProgram program = parseVaporM(in, System.err);
+
+        if (program == null)
+            System.exit(1);
+
+        VaporMInterpreter interpreter = new VaporMInterpreter(program, System.out);
+        interpreter.setLimit(limit);
+        boolean ok = interpreter.run(System.err);
+
+        System.out.flush();
+        interpreter.printCounts(System.err);
+
+        if (!ok)
+            System.exit(1);
+    }
+
+    public static VaporProgram parseVaporM(InputStream in, PrintStream err) throws IOException
+    {
+        Op[] ops = { Op.Add, Op.Sub, Op.MulS, Op.Eq, Op.Lt, Op.LtS, Op.PrintIntS, Op.HeapAllocZ, Op.Error };
+        boolean allowLocals = false;
+        boolean allowStack = true;
+
+        try
+        {
+            return VaporParser.run(new InputStreamReader(in), 1, 1, Arrays.asList(ops), allowLocals, REGISTERS, allowStack);
+        }
+        catch (Exception ex)
+        {
+            err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    public void setLimit(long instructions)
+    {
+        limit = instructions;
+    }
+
+    public Counts[] getCounts()
+    {
+        return counts;
+    }
+
+    public Counts getTotal()
+    {
+        Counts total = new Counts("total");
+        for (Counts c : counts)
+            total.add(c);
+
+        return total;
+    }
+
+    // Run Main to its end, or to Error(), which ends the program as it does
+    // under vapor.jar. False on a fault, which is also printed to err.
+    public boolean run(PrintStream err)
+    {
+        VFunction main = null;
+        for (VFunction function : program.functions)
+            if (function.ident.equals("Main"))
+                main = function;
+
+        if (main == null)
+        {
+            err.println("no Main function");
+            return false;
+        }
+
+        Deque<Activation> stack = new ArrayDeque<>();
+        Activation frame = enter(main, new Object[0]);
+        long executed = 0;
+
+        try
+        {
+            while (frame != null)
+            {
+                if (++executed > limit)
+                    throw new Fault("stopped after " + limit + " instructions");
+
+                VInstr instr = frame.function.body[frame.pc++];
+                frame.counts.instructions++;
+
+                if (instr instanceof VCall)
+                {
+                    VCall call = (VCall) instr;
+                    stack.push(frame);
+                    frame = enter(callee(call.addr), frame.out);
+                }
+                else if (instr instanceof VReturn)
+                {
+                    frame = stack.poll();
+                }
+                else if (instr instanceof VBuiltIn && ((VBuiltIn) instr).op == Op.Error)
+                {
+                    out.flush();
+                    err.println("--- Error (Explicit) ---");
+                    err.println(((VLitStr) ((VBuiltIn) instr).args[0]).value);
+                    return true;
+                }
+                else
+                {
+                    execute(frame, instr);
+                }
+            }
+        }
+        catch (Fault fault)
+        {
+            out.flush();
+            err.println("--- Error (ProgramFault) --- " + fault.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    private Activation enter(VFunction function, Object[] in)
+    {
+        Activation frame = new Activation(function, counts[function.index], in);
+        frame.counts.calls++;
+
+        return frame;
+    }
+
+    private void execute(Activation frame, VInstr instr) throws Fault
+    {
+        if (instr instanceof VAssign)
+        {
+            VAssign assign = (VAssign) instr;
+            write(assign.dest, value(assign.source));
+        }
+        else if (instr instanceof VBuiltIn)
+        {
+            VBuiltIn builtIn = (VBuiltIn) instr;
+            Object result = builtIn(builtIn);
+
+            if (builtIn.dest != null)
+                write(builtIn.dest, result);
+        }
+        else if (instr instanceof VMemRead)
+        {
+            VMemRead read = (VMemRead) instr;
+            write(read.dest, load(frame, read.source));
+        }
+        else if (instr instanceof VMemWrite)
+        {
+            VMemWrite write = (VMemWrite) instr;
+            store(frame, write.dest, value(write.source));
+        }
+        else if (instr instanceof VBranch)
+        {
+            VBranch branch = (VBranch) instr;
+            if (isTrue(value(branch.value)) == branch.positive)
+                frame.pc = branch.target.getTarget().instrIndex;
+        }
+        else if (instr instanceof VGoto)
+        {
+            VGoto jump = (VGoto) instr;
+            frame.pc = codeLabel(jump.target).instrIndex;
+        }
+        else
+        {
+            throw new Fault("unexpected instruction " + instr.getClass().getSimpleName());
+        }
+    }
+
+    private Object builtIn(VBuiltIn builtIn) throws Fault
+    {
+        Op op = builtIn.op;
+
+        if (op == Op.PrintIntS)
+        {
+            out.println(integer(value(builtIn.args[0]), 1));
+            return null;
+        }
+
+        if (op == Op.HeapAllocZ)
+        {
+            int bytes = integer(value(builtIn.args[0]), 1);
+            if (bytes < 0)
+                throw new Fault("HeapAllocZ of " + bytes + " bytes");
+
+            Object[] block = new Object[(bytes + 3) / 4];
+            Arrays.fill(block, 0);
+
+            return new Pointer(block, 0);
+        }
+
+        Object left = value(builtIn.args[0]);
+        Object right = value(builtIn.args[1]);
+
+        if (op == Op.Add || op == Op.Sub)
+        {
+            // pointer arithmetic stays within its block
+            if (left instanceof Pointer && right instanceof Integer)
+            {
+                Pointer pointer = (Pointer) left;
+                int delta = (Integer) right;
+                return new Pointer(pointer.block, pointer.byteOffset + (op == Op.Add ? delta : -delta));
+            }
+
+            if (op == Op.Add && left instanceof Integer && right instanceof Pointer)
+            {
+                Pointer pointer = (Pointer) right;
+                return new Pointer(pointer.block, pointer.byteOffset + (Integer) left);
+            }
+
+            int a = integer(left, 1);
+            int b = integer(right, 2);
+            return op == Op.Add ? a + b : a - b;
+        }
+
+        if (op == Op.Eq)
+            return Objects.equals(left, right) ? 1 : 0;
+
+        int a = integer(left, 1);
+        int b = integer(right, 2);
+
+        if (op == Op.MulS)
+            return a * b;
+        if (op == Op.LtS)
+            return a < b ? 1 : 0;
+        if (op == Op.Lt)
+            return Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+
+        throw new Fault("unsupported operation " + op.name);
+    }
+
+    // Memory
+
+    private Object load(Activation frame, VMemRef ref) throws Fault
+    {
+        if (ref instanceof VMemRef.Stack)
+        {
+            VMemRef.Stack slot = (VMemRef.Stack) ref;
+
+            switch (slot.region)
+            {
+                case Local:
+                    frame.counts.localReads++;
+                    return get(frame.local, slot.index, "local");
+                case In:
+                    frame.counts.inReads++;
+                    return get(frame.in, slot.index, "in");
+                default:
+                    throw new Fault("reading out[" + slot.index + "]");
+            }
+        }
+
+        frame.counts.loads++;
+        Pointer address = address((VMemRef.Global) ref);
+
+        return get(address.block, address.byteOffset / 4, "memory");
+    }
+
+    private void store(Activation frame, VMemRef ref, Object value) throws Fault
+    {
+        if (ref instanceof VMemRef.Stack)
+        {
+            VMemRef.Stack slot = (VMemRef.Stack) ref;
+
+            switch (slot.region)
+            {
+                case Local:
+                    frame.counts.localWrites++;
+                    set(frame.local, slot.index, value, "local");
+                    break;
+                case Out:
+                    frame.counts.outWrites++;
+                    set(frame.out, slot.index, value, "out");
+                    break;
+                default:
+                    throw new Fault("writing in[" + slot.index + "]");
+            }
+
+            return;
+        }
+
+        frame.counts.stores++;
+        Pointer address = address((VMemRef.Global) ref);
+        set(address.block, address.byteOffset / 4, value, "memory");
+    }
+
+    private Pointer address(VMemRef.Global ref) throws Fault
+    {
+        Object base = ref.base instanceof VAddr.Label
+            ? new Pointer(segments.get(((VAddr.Label<VDataSegment>) ref.base).label.getTarget()), 0)
+            : read(((VAddr.Var<VDataSegment>) ref.base).var);
+
+        if (!(base instanceof Pointer))
+            throw new Fault("expecting a pointer, found " + describe(base));
+
+        Pointer pointer = (Pointer) base;
+        int offset = pointer.byteOffset + ref.byteOffset;
+
+        if (offset % 4 != 0)
+            throw new Fault("unaligned memory access at offset " + offset);
+
+        return new Pointer(pointer.block, offset);
+    }
+
+    private static Object get(Object[] words, int index, String what) throws Fault
+    {
+        if (index < 0 || index >= words.length)
+            throw new Fault(what + " access out of bounds: " + index + " of " + words.length);
+
+        return words[index];
+    }
+
+    private static void set(Object[] words, int index, Object value, String what) throws Fault
+    {
+        if (index < 0 || index >= words.length)
+            throw new Fault(what + " access out of bounds: " + index + " of " + words.length);
+
+        words[index] = value;
+    }
+
+    // Operands
+
+    private Object value(VOperand operand) throws Fault
+    {
+        if (operand instanceof VLitInt)
+            return ((VLitInt) operand).value;
+        if (operand instanceof VVarRef)
+            return read((VVarRef) operand);
+        if (operand instanceof VLabelRef)
+            return constant((VLabelRef<?>) operand);
+
+        throw new Fault("unexpected operand " + operand);
+    }
+
+    private Object constant(VOperand.Static operand)
+    {
+        if (operand instanceof VLitInt)
+            return ((VLitInt) operand).value;
+
+        VTarget target = ((VLabelRef<?>) operand).getTarget();
+        if (target instanceof VDataSegment)
+            return new Pointer(segments.get(target), 0);
+
+        return target;
+    }
+
+    private Object read(VVarRef var)
+    {
+        return registers[((VVarRef.Register) var).index];
+    }
+
+    private void write(VVarRef var, Object value)
+    {
+        registers[((VVarRef.Register) var).index] = value;
+    }
+
+    private VFunction callee(VAddr<VFunction> addr) throws Fault
+    {
+        Object target = addr instanceof VAddr.Label ? ((VAddr.Label<VFunction>) addr).label.getTarget() : read(((VAddr.Var<VFunction>) addr).var);
+
+        if (!(target instanceof VFunction))
+            throw new Fault("calling " + describe(target));
+
+        return (VFunction) target;
+    }
+
+    private VCodeLabel codeLabel(VAddr<VCodeLabel> addr) throws Fault
+    {
+        Object target = addr instanceof VAddr.Label ? ((VAddr.Label<VCodeLabel>) addr).label.getTarget() : read(((VAddr.Var<VCodeLabel>) addr).var);
+
+        if (!(target instanceof VCodeLabel))
+            throw new Fault("jumping to " + describe(target));
+
+        return (VCodeLabel) target;
+    }
+
+    private static int integer(Object value, int argument) throws Fault
+    {
+        if (!(value instanceof Integer))
+            throw new Fault("expecting argument " + argument + " to be an integer, found " + describe(value));
+
+        return (Integer) value;
+    }
+
+    private static boolean isTrue(Object value) throws Fault
+    {
+        if (value == UNDEFINED)
+            throw new Fault("branching on an undefined value");
+
+        return !(value instanceof Integer) || (Integer) value != 0;
+    }
+
+    private static String describe(Object value)
+    {
+        if (value instanceof Integer)
+            return "integer " + value;
+        if (value instanceof Pointer)
+            return "pointer";
+        if (value instanceof VFunction)
+            return "function :" + ((VFunction) value).ident;
+        if (value instanceof VCodeLabel)
+            return "code label :" + ((VCodeLabel) value).ident;
+
+        return "undefined value";
+    }
+
+    // Report
+
+    public void printCounts(PrintStream err)
+    {
+        String format = "%-28s %8s %10s %8s %8s %8s %8s %6s %6s %10s";
+        err.println(String.format(format, "function", "calls", "instrs", "loads", "stores", "local r", "local w", "in", "out", "cost"));
+
+        for (Counts c : counts)
+            if (c.calls > 0)
+                printRow(err, format, c);
+
+        printRow(err, format, getTotal());
+    }
+
+    private static void printRow(PrintStream err, String format, Counts c)
+    {
+        err.println(String.format(format, c.name, c.calls, c.instructions, c.loads, c.stores, c.localReads, c.localWrites, c.inReads, c.outWrites, c.cost()));
+    }
+}
@@ -0,0 +1,58 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+//Writes vaporM text to a byte channel through one fixed buffer. Each line is encoded
+//straight into the buffer, which is drained to the channel whenever it fills, so a
+//function can be written out as soon as it is compiled and then dropped.
+class VaporMWriter
+{
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(1 << 16);
+
+    public VaporMWriter(WritableByteChannel channel)
+    {
+        this.channel = channel;
+        this.encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void writeLine(String line) throws IOException
+    {
+        write(line);
+        write("\n");
+    }
+
+    //the lines of one function, then the blank line that separates functions
+    public void writeFunction(List<String> code) throws IOException
+    {
+        for (String line : code)
+            writeLine(line);
+
+        writeLine("");
+    }
+
+    public void flush() throws IOException
+    {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+
+        bytes.clear();
+    }
+
+    private void write(String text) throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(text);
+
+        encoder.reset();
+        while (encoder.encode(chars, bytes, true).isOverflow())
+            flush();
+        while (encoder.flush(bytes).isOverflow())
+            flush();
+    }
+}
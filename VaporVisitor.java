@@ -0,0 +1,442 @@
+import cs132.vapor.ast.*;
+import cs132.vapor.ast.VInstr.Visitor;
+
+import java.util.*;
+
+class VaporVisitor <E extends Throwable> extends Visitor<E>
+{
+    public RegisterAllocator registerAllocator;
+    public LivenessBitSets liveness;
+    public VFunction vaporFunction;
+    public List<String> buffer;
+    public List<String> usedSXRegs;
+    public List<String> usedTXRegs;
+    public int indentLevel;
+    public int outCount;
+
+    //local[] slots before the first spilled variable's
+    public int stackBase;
+
+    public VaporVisitor() 
+    {
+        buffer = new ArrayList<>();
+    }
+
+    //indentation prefix, rebuilt only when indentLevel changes
+    private String indent = "";
+    private int indentOf = 0;
+
+    public void setBuffer(int pos, String str) 
+    {
+        if (indentOf != indentLevel)
+        {
+            indent = " ".repeat(indentLevel * 4);
+            indentOf = indentLevel;
+        }
+
+        if (!indent.isEmpty())
+            str = indent + str;
+
+        if (str.charAt(str.length() - 1) != '\n')
+            buffer.set(pos, str + "\n");
+        else
+            buffer.set(pos, str);
+    }
+
+    public void printBuffer() 
+    {
+        for (String line : buffer)
+            System.out.print(line);
+
+        System.out.println();
+    }
+
+    public void insertLabels() 
+    {
+        for (int i = 0; i < vaporFunction.labels.length; i++) 
+        {
+            int pos = getRelativePos(vaporFunction.labels[i].sourcePos.line);
+            setBuffer(pos, vaporFunction.labels[i].ident + ":\n");
+        }
+
+        // Set up function header
+        //StringBuilder funcHeader = new StringBuilder();
+
+        int inCount = Math.max(vaporFunction.params.length - 4, 0);
+
+        // Save all $sx  registers
+        int sxCount = usedSXRegs.size();
+        int txCount = usedTXRegs.size();
+
+        // $s saves, $t saves, then the spilled variables
+        int localCount = sxCount + txCount + registerAllocator.stackSlots();
+
+        StringBuilder funcHeader = new StringBuilder("func " + vaporFunction.ident + " [in " + inCount + ", out " + outCount + ", local " + localCount + "]\n");
+
+        // Save $sx registers
+        int stackLoc = 0;
+        for (String reg : usedSXRegs) 
+        {
+            funcHeader.append("local[").append(stackLoc).append("] = ").append(reg).append("\n");
+            stackLoc++;
+        }
+
+        // Unload the parameters from $a0..$a3 and in[0] on, in[] into a slot through $v0
+        for (int i = 0; i < vaporFunction.params.length; i++) 
+        {
+            LiveInterval currArg = registerAllocator.getAllocation(-1, vaporFunction.params[i].ident);
+
+            //a parameter never used has no interval
+            if (currArg == null)
+                continue;
+
+            if (i < 4)
+                funcHeader.append(currArg.getLocation(stackBase)).append(" = ").append("$a").append(i).append("\n");
+            else if (currArg.location == -1)
+                funcHeader.append(currArg.getLocation(stackBase)).append(" = ").append("in[").append(i - 4).append("]\n");
+            else
+            {
+                funcHeader.append("$v0 = in[").append(i - 4).append("]\n");
+                funcHeader.append(currArg.getLocation(stackBase)).append(" = $v0\n");
+            }
+        }
+
+        buffer.add(0, funcHeader.toString());
+    }
+
+    public void setData(VFunction vaporFunction, RegisterAllocator registerAllocator, LivenessBitSets liveness) 
+    {
+        this.vaporFunction = vaporFunction;
+        this.registerAllocator = registerAllocator;
+        this.liveness = liveness;
+
+        usedSXRegs = new ArrayList<>();
+        for (LiveInterval lr : registerAllocator.liveIntervals.liveIntervals) 
+        {
+            if (lr.location == -1 && lr.register.contains("s") && !usedSXRegs.contains(lr.register)) 
+                usedSXRegs.add(lr.register);
+        }
+
+        usedTXRegs = new ArrayList<>();
+        for (LiveInterval tr : registerAllocator.liveIntervals.liveIntervals) 
+        {
+            if (tr.location == -1 && tr.register.contains("t") && !usedTXRegs.contains(tr.register)) 
+                usedTXRegs.add(tr.register);
+        }
+
+        // Spilled variables come after the $s and $t save slots
+        stackBase = usedSXRegs.size() + usedTXRegs.size();
+
+        outCount = 0;
+
+        // Set up buffer
+        buffer = new ArrayList<>();
+        for (int i = 0; i <= vaporFunction.body.length + vaporFunction.labels.length; i++)
+            buffer.add("");
+    }
+
+    // Registers holding out[n] − def[n] at the call: where each such variable is allocated
+    // at the call, or, when no interval covers the call, wherever any of its intervals is
+    private List<String> liveAcrossTXRegs(int sourcePos)
+    {
+        int n = sourcePos + VaporFunctionVisitor.HEADER;
+        Set<String> registers = new HashSet<>();
+
+        for (int id = 0; id < liveness.symbols.size(); id++)
+        {
+            if (!LivenessBitSets.contains(liveness.out[n], id) || LivenessBitSets.contains(liveness.def[n], id))
+                continue;
+
+            LiveInterval alloc = registerAllocator.liveIntervals.get_registerAllocation(sourcePos, id);
+
+            if (alloc != null)
+                registers.add(alloc.getLocation(stackBase));
+            else
+            {
+                for (LiveInterval liveInterval : registerAllocator.liveIntervals.get_liveIntervals(id))
+                    registers.add(liveInterval.getLocation(stackBase));
+            }
+        }
+
+        List<String> liveTXRegs = new ArrayList<>(usedTXRegs);
+        liveTXRegs.retainAll(registers);
+
+        return liveTXRegs;
+    }
+
+    public int getRelativePos(int sourcePos) 
+    {
+        return (sourcePos - vaporFunction.sourcePos.line) - 1;
+    }
+
+    //a spilled operand is loaded into a scratch register just before the instruction,
+    //VaporM has no instruction that reads local[] but a move
+    private String read(LiveInterval alloc, String scratch, StringBuilder line)
+    {
+        if (alloc.location == -1)
+            return alloc.getLocation(stackBase);
+
+        line.append(scratch).append(" = ").append(alloc.getLocation(stackBase)).append("\n");
+        return scratch;
+    }
+
+    //a spilled destination is computed into $v0 and stored by store() just after
+    private String written(LiveInterval alloc)
+    {
+        return alloc.location == -1 ? alloc.getLocation(stackBase) : "$v0";
+    }
+
+    private void store(LiveInterval alloc, StringBuilder line)
+    {
+        if (alloc.location != -1)
+            line.append("\n").append(alloc.getLocation(stackBase)).append(" = $v0");
+    }
+
+    public void visit(VAssign a) throws E 
+    {
+        int sourcePos = getRelativePos(a.sourcePos.line);
+        LiveInterval destAlloc = registerAllocator.getAllocation(sourcePos, a.dest.toString());
+        LiveInterval srcAlloc = registerAllocator.getAllocation(sourcePos, a.source.toString());
+
+        if (destAlloc == null)
+            return;
+
+        //coalesced moves vanish
+        if (srcAlloc != null && destAlloc.getLocation(stackBase).equals(srcAlloc.getLocation(stackBase)))
+            return;
+
+        StringBuilder line = new StringBuilder();
+
+        //a move from one slot to another goes through $v0
+        String source;
+        if (srcAlloc == null)
+            source = a.source.toString();
+        else if (destAlloc.location != -1)
+            source = read(srcAlloc, "$v0", line);
+        else
+            source = srcAlloc.getLocation(stackBase);
+
+        line.append(destAlloc.getLocation(stackBase)).append(" = ").append(source);
+
+        setBuffer(sourcePos, line.toString());
+    }
+
+    public void visit(VCall c) throws E 
+    {
+        int sourcePos = getRelativePos(c.sourcePos.line);
+        LiveInterval destAlloc = c.dest == null ? null : registerAllocator.getAllocation(sourcePos, c.dest.toString());
+
+        StringBuilder line = new StringBuilder();
+
+        // Save the $t registers live across the call, each in its own slot
+        List<String> liveTXRegs = liveAcrossTXRegs(sourcePos);
+        for (int i = 0; i < usedTXRegs.size(); i++)
+        {
+            if (liveTXRegs.contains(usedTXRegs.get(i)))
+                line.append("local[" + (usedSXRegs.size() + i) + "] = " + usedTXRegs.get(i) + "\n");
+        }
+
+        // Set up arguments: the first four in $a0..$a3, the rest in out[0] on
+        for (int i = 0; i < c.args.length; i++) 
+        {
+            String arg = i < 4 ? "$a" + i : "out[" + (i - 4) + "]";
+
+            if (c.args[i] instanceof VVarRef) 
+            {
+                LiveInterval currArgAlloc = registerAllocator.getAllocation(sourcePos, c.args[i].toString());
+
+                //out[] from a slot goes through $v0
+                if (currArgAlloc != null)
+                {
+                    String value = i < 4 ? currArgAlloc.getLocation(stackBase) : read(currArgAlloc, "$v0", line);
+                    line.append(arg + " = " + value + "\n");
+                }
+            } 
+            else if (c.args[i] instanceof VOperand.Static) 
+                line.append(arg + " = " + c.args[i].toString() + "\n");
+            else if (c.args[i] instanceof VLitStr) 
+                line.append("\"" + ((VLitStr) c.args[i]).value + "\"");
+        }
+
+        outCount = Math.max(outCount, c.args.length - 4);
+
+        if (c.addr instanceof VAddr.Label) 
+            line.append("call :" + ((VAddr.Label<VFunction>) c.addr).label.ident + "\n");
+        else 
+        {
+            LiveInterval addrAlloc = registerAllocator.getAllocation(sourcePos, c.addr.toString());
+            String addr = read(addrAlloc, "$v0", line);
+            line.append("call " + addr + "\n");
+        }
+
+        // Restore Ts
+        for (int i = 0; i < usedTXRegs.size(); i++) 
+        {
+            if (liveTXRegs.contains(usedTXRegs.get(i)))
+                line.append(usedTXRegs.get(i) + " = local[" + (usedSXRegs.size() + i) + "]\n");
+        }
+
+        // Get the return value, straight into its slot if spilled
+        if (destAlloc != null)
+            line.append(destAlloc.getLocation(stackBase) + " = $v0");
+
+        setBuffer(sourcePos, line.toString());
+    }
+
+    public void visit(VBuiltIn c) throws E 
+    {
+        int sourcePos = getRelativePos(c.sourcePos.line);
+
+        StringBuilder line = new StringBuilder();
+        StringBuilder call = new StringBuilder(c.op.name + "(");
+
+        //spilled arguments are loaded into $v0 and then $v1
+        int spilled = 0;
+
+        for (int i = 0; i < c.args.length; i++) 
+        {
+            if (i != 0) 
+                call.append(" ");
+
+            if (c.args[i] instanceof VVarRef) 
+            {
+                LiveInterval currArgAlloc = registerAllocator.getAllocation(sourcePos, c.args[i].toString());
+
+                if (currArgAlloc != null)
+                {
+                    if (currArgAlloc.location != -1)
+                        spilled++;
+
+                    call.append(read(currArgAlloc, spilled == 2 ? "$v1" : "$v0", line));
+                }
+            } 
+            else if (c.args[i] instanceof VOperand.Static) 
+                call.append(c.args[i].toString());
+            else if (c.args[i] instanceof VLitStr)
+                call.append("\""+ ((VLitStr)c.args[i]).value + "\"");
+        }
+
+        call.append(")");
+
+        // Sometimes BuiltIn does not have a dest
+        LiveInterval destAlloc = c.dest == null ? null : registerAllocator.getAllocation(sourcePos, c.dest.toString());
+
+        if (destAlloc != null) 
+        {
+            line.append(written(destAlloc)).append(" = ").append(call);
+            store(destAlloc, line);
+        }
+        else
+            line.append(call);
+
+        setBuffer(sourcePos, line.toString());
+    }
+
+    public void visit(VMemWrite w) throws E 
+    {
+        int sourcePos = getRelativePos(w.sourcePos.line);
+        LiveInterval destAlloc = registerAllocator.getAllocation(sourcePos, ((VMemRef.Global) w.dest).base.toString());
+        LiveInterval srcAlloc = registerAllocator.getAllocation(sourcePos, w.source.toString());
+
+        StringBuilder line = new StringBuilder();
+        StringBuilder store = new StringBuilder();
+
+        if (destAlloc != null) 
+            store.append("[" + read(destAlloc, "$v0", line) + "+" + ((VMemRef.Global) w.dest).byteOffset + "]");
+
+        store.append(" = ");
+
+        if (srcAlloc != null) 
+            store.append(read(srcAlloc, "$v1", line));
+        else 
+            store.append(w.source.toString());
+
+        setBuffer(sourcePos, line.append(store).toString());
+    }
+
+    public void visit(VMemRead r) throws E 
+    {
+        int sourcePos = getRelativePos(r.sourcePos.line);
+        LiveInterval destAlloc = registerAllocator.getAllocation(sourcePos, r.dest.toString());
+        LiveInterval srcAlloc = registerAllocator.getAllocation(sourcePos, ((VMemRef.Global) r.source).base.toString());
+
+        if (destAlloc == null)
+            return;
+
+        StringBuilder line = new StringBuilder();
+        String load;
+
+        if (srcAlloc != null) 
+            load = "[" + read(srcAlloc, "$v0", line) + "+" + ((VMemRef.Global) r.source).byteOffset + "]";
+        else
+            load = "[" +r.source.toString() + "]";
+
+        line.append(written(destAlloc)).append(" = ").append(load);
+        store(destAlloc, line);
+
+        setBuffer(sourcePos, line.toString());
+    }
+
+    public void visit(VBranch b) throws E 
+    {
+        int sourcePos = getRelativePos(b.sourcePos.line);
+        LiveInterval destAlloc = registerAllocator.getAllocation(sourcePos, b.value.toString());
+
+        StringBuilder line;
+
+        if (destAlloc != null) 
+        {
+            line = new StringBuilder();
+            String value = read(destAlloc, "$v0", line);
+
+            if (b.positive) 
+                line.append("if " + value + " goto :" + b.target.ident);
+            else 
+                line.append("if0 " + value + " goto :" + b.target.ident);
+
+            setBuffer(sourcePos, line.toString());
+        }
+    }
+
+    public void visit(VGoto g) throws E 
+    {
+        int sourcePos = getRelativePos(g.sourcePos.line);
+
+        setBuffer(sourcePos, "goto " + g.target.toString());
+    }
+
+    public void visit(VReturn r) throws E 
+    {
+        int sourcePos = getRelativePos(r.sourcePos.line);
+
+        StringBuilder retString = new StringBuilder();
+
+        if (r.value != null) 
+        {
+            if (r.value instanceof VVarRef) 
+            {
+                LiveInterval retAlloc = registerAllocator.getAllocation(sourcePos, r.value.toString());
+                if (retAlloc != null)
+                    retString.append("$v0 = ").append(retAlloc.getLocation(stackBase)).append("\n");
+            } 
+            else if (r.value instanceof VOperand.Static) 
+                retString.append("$v0 = ").append(r.value.toString()).append("\n");
+        }
+
+        // Restore used sx registers
+        int count = 0;
+        for (String reg : usedSXRegs) 
+        {
+            retString.append(reg).append(" = local[").append(count).append("]\n");
+            count++;
+        }
+
+        retString.append("ret");
+
+        setBuffer(sourcePos, retString.toString());
+
+        // Since this is the end of the function, insert
+        // CF labels. This also set function header
+        insertLabels();
+    }
+}
@@ -0,0 +1,199 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+import java.util.*;
+
+// Compares V2VM's linear scan before and after the sorted-array active set and
+// bitmask free pool, on the intervals of every function in the given programs.
+// Both are timed on the same intervals with their lifetime holes filled in, so
+// that only the data structures differ. The last column is what the holes are
+// worth: the intervals the current allocator spills when it is given them.
+public class AllocatorBench
+{
+    static final int WARMUP = 2000;
+    static final int ROUNDS = 20000;
+
+    public static void main(String[] args) throws Exception
+    {
+        System.out.println(String.format("%-28s %10s %14s %14s %8s %8s %8s %8s", "program", "intervals", "legacy ns/fn", "current ns/fn", "speedup", "legacy", "current", "holes"));
+
+        for (String path : args)
+        {
+            List<List<LiveInterval>> functions = intervals(path);
+            int count = functions.stream().mapToInt(List::size).sum();
+
+            int legacySpills = spills(runLegacy(functions));
+            int currentSpills = spills(runCurrent(functions, false));
+            int holeSpills = spills(runCurrent(functions, true));
+
+            for (int r = 0; r < WARMUP; r++)
+            {
+                runLegacy(functions);
+                runCurrent(functions, false);
+            }
+
+            long legacy = time(() -> runLegacy(functions));
+            long current = time(() -> runCurrent(functions, false));
+            double perLegacy = (double) legacy / ROUNDS / functions.size();
+            double perCurrent = (double) current / ROUNDS / functions.size();
+
+            System.out.println(String.format("%-28s %10d %14.0f %14.0f %7.2fx %8d %8d %8d", new File(path).getName(), count, perLegacy, perCurrent, perLegacy / perCurrent, legacySpills, currentSpills, holeSpills));
+        }
+    }
+
+    static long time(Runnable run)
+    {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++)
+            run.run();
+        return System.nanoTime() - start;
+    }
+
+    static List<List<LiveInterval>> intervals(String path) throws Exception
+    {
+        VaporProgram program = V2VM.parseVapor(new FileInputStream(path), System.err);
+        List<List<LiveInterval>> functions = new ArrayList<>();
+
+        for (VFunction function : program.functions)
+        {
+            VaporFunctionVisitor<Exception> visitor = new VaporFunctionVisitor<>();
+            visitor.set_vaporFunction(function);
+
+            for (VInstr instr : function.body)
+                instr.accept(visitor);
+
+            functions.add(visitor.get_liveIntervals().liveIntervals);
+        }
+
+        return functions;
+    }
+
+    static List<LiveInterval> copy(List<LiveInterval> intervals, boolean holes)
+    {
+        List<LiveInterval> copy = new ArrayList<>(intervals.size());
+        for (LiveInterval i : intervals)
+            copy.add(holes ? new LiveInterval(i.ranges, i.identifier, i.id) : new LiveInterval(i.startPoint, i.endPoint, i.identifier));
+        return copy;
+    }
+
+    static List<List<LiveInterval>> runLegacy(List<List<LiveInterval>> functions)
+    {
+        List<List<LiveInterval>> result = new ArrayList<>();
+        for (List<LiveInterval> intervals : functions)
+        {
+            LegacyRegisterAllocator allocator = new LegacyRegisterAllocator(new LiveIntervals(copy(intervals, false)));
+            allocator.LinearScanRegisterAllocation();
+            result.add(allocator.liveIntervals.liveIntervals);
+        }
+        return result;
+    }
+
+    static List<List<LiveInterval>> runCurrent(List<List<LiveInterval>> functions, boolean holes)
+    {
+        List<List<LiveInterval>> result = new ArrayList<>();
+        for (List<LiveInterval> intervals : functions)
+        {
+            RegisterAllocator allocator = new RegisterAllocator(null, new LiveIntervals(copy(intervals, holes)));
+            allocator.LinearScanRegisterAllocation();
+            result.add(allocator.liveIntervals.liveIntervals);
+        }
+        return result;
+    }
+
+    static int spills(List<List<LiveInterval>> functions)
+    {
+        int count = 0;
+        for (List<LiveInterval> intervals : functions)
+        {
+            for (LiveInterval i : intervals)
+            {
+                if (i.location != -1)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // RegisterAllocator as it was before the sorted-array active set: the
+    // active list is re-sorted after every insertion and expiry, and the free
+    // pool is re-sorted through a linear registerIndex scan.
+    static class LegacyRegisterAllocator
+    {
+        String[] registers = {"$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+                              "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8"};
+        int R = registers.length;
+
+        LiveIntervals liveIntervals;
+        List<String> freeRegisters_pool = new ArrayList<>(Arrays.asList(registers));
+        List<LiveInterval> active = new ArrayList<>();
+        int stackLocation = 0;
+
+        LegacyRegisterAllocator(LiveIntervals intervals)
+        {
+            liveIntervals = intervals;
+        }
+
+        void LinearScanRegisterAllocation()
+        {
+            liveIntervals.sortBy_increasingStart();
+            for (LiveInterval i : liveIntervals.liveIntervals)
+            {
+                ExpireOldIntervals(i);
+
+                if (active.size() == R)
+                    SpillAtInterval(i);
+                else
+                {
+                    i.register = freeRegisters_pool.remove(0);
+                    active.add(i);
+                    active.sort((liveInterval1, liveInterval2) -> liveInterval1.endPoint < liveInterval2.endPoint ? -1 : 1);
+                }
+            }
+        }
+
+        void ExpireOldIntervals(LiveInterval i)
+        {
+            List<LiveInterval> expiredIntervals = new ArrayList<>();
+
+            active.sort((liveInterval1, liveInterval2) -> liveInterval1.endPoint < liveInterval2.endPoint ? -1 : 1);
+            for (LiveInterval j : active)
+            {
+                if (j.endPoint >= i.startPoint)
+                    break;
+
+                freeRegisters_pool.add(j.register);
+                freeRegisters_pool.sort((register1, register2) -> registerIndex(register1) < registerIndex(register2) ? -1 : 1);
+                expiredIntervals.add(j);
+            }
+
+            for (LiveInterval liveInterval : expiredIntervals)
+                active.remove(liveInterval);
+        }
+
+        void SpillAtInterval(LiveInterval i)
+        {
+            LiveInterval spill = active.get(active.size() - 1);
+
+            if (spill.endPoint > i.endPoint)
+            {
+                i.register = spill.register;
+                spill.location = ++stackLocation;
+                active.remove(spill);
+                active.add(i);
+                active.sort((liveInterval1, liveInterval2) -> liveInterval1.endPoint < liveInterval2.endPoint ? -1 : 1);
+            }
+            else
+                i.location = ++stackLocation;
+        }
+
+        int registerIndex(String register)
+        {
+            for (int i = 0; i < R; i++)
+            {
+                if (registers[i].equals(register))
+                    return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+import java.util.*;
+
+// Scaling benchmark for V2VM's CFG construction and liveness. Synthetic Vapor
+// functions of 1k to 100k instructions are parsed and pushed through
+// VaporFunctionVisitor; if both phases are linear, ns/instr stays flat.
+public class CfgScaling
+{
+    static final int REPEAT = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] sizes = { 1000, 2000, 5000, 10000, 20000, 50000, 100000 };
+        boolean treeSet = false;
+
+        List<Integer> requested = new ArrayList<>();
+        for (String arg : args)
+        {
+            if (arg.equals("--liveness=treeset"))
+                treeSet = true;
+            else
+                requested.add(Integer.parseInt(arg));
+        }
+
+        if (!requested.isEmpty())
+            sizes = requested.stream().mapToInt(Integer::intValue).toArray();
+
+        // Warm up the JIT on a mid-sized function before measuring
+        measure(parse(syntheticFunction(5000)), treeSet);
+
+        System.out.println(String.format("%12s %12s %12s %12s", "instructions", "cfg ms", "liveness ms", "ns/instr"));
+
+        for (int size : sizes)
+        {
+            VFunction function = parse(syntheticFunction(size));
+            long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+
+            for (int r = 0; r < REPEAT; r++)
+            {
+                long[] time = measure(function, treeSet);
+                best[0] = Math.min(best[0], time[0]);
+                best[1] = Math.min(best[1], time[1]);
+            }
+
+            System.out.println(String.format("%12d %12.2f %12.2f %12.1f", size, best[0] / 1e6, best[1] / 1e6, (double) (best[0] + best[1]) / size));
+        }
+    }
+
+    static long[] measure(VFunction function, boolean treeSet) throws Exception
+    {
+        VaporFunctionVisitor<Exception> visitor = new VaporFunctionVisitor<>();
+        visitor.treeSetLiveness = treeSet;
+
+        long start = System.nanoTime();
+
+        visitor.set_vaporFunction(function);
+        for (VInstr instr : function.body)
+            instr.accept(visitor);
+
+        long cfg = System.nanoTime();
+
+        visitor.computeLiveness();
+
+        long liveness = System.nanoTime();
+
+        return new long[] { cfg - start, liveness - cfg };
+    }
+
+    static VFunction parse(String source) throws IOException
+    {
+        VaporProgram program = V2VM.parseVapor(new ByteArrayInputStream(source.getBytes()), System.err);
+        return program.functions[0];
+    }
+
+    // Loops of ten instructions over eight rotating variables, each closed by
+    // a backward branch, so liveness needs more than one pass.
+    static String syntheticFunction(int instructions)
+    {
+        return "func Main()\n" + syntheticBody("L", instructions);
+    }
+
+    static String syntheticBody(String label, int instructions)
+    {
+        StringBuilder source = new StringBuilder();
+
+        for (int v = 0; v < 8; v++)
+            source.append("  v").append(v).append(" = ").append(v).append("\n");
+
+        int emitted = 8;
+        for (int loop = 0; emitted < instructions; loop++)
+        {
+            source.append(label).append(loop).append(":\n");
+
+            for (int i = 0; i < 8; i++, emitted++)
+                source.append("  v").append((i + loop) % 8).append(" = Add(v").append((i + loop + 1) % 8).append(" v").append((i + loop + 3) % 8).append(")\n");
+
+            source.append("  c = LtS(v").append(loop % 8).append(" 100)\n");
+            source.append("  if c goto :").append(label).append(loop).append("\n");
+            emitted += 2;
+        }
+
+        source.append("  PrintIntS(v0)\n");
+        source.append("  ret\n");
+
+        return source.toString();
+    }
+}
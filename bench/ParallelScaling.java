@@ -0,0 +1,141 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+// Speedup of --parallel on a large generated program: many independent
+// functions of loops over rotating variables. Each thread count is timed for
+// V2VM and VM (best of a few runs, after a warm-up), and every parallel run is
+// checked to produce exactly the sequential output.
+public class ParallelScaling
+{
+    static final int REPEAT = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int instructions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        VaporProgram program = V2VM.parseVapor(new ByteArrayInputStream(syntheticProgram(functions, instructions).getBytes()), System.err);
+
+        String v2vmSequential = v2vm(program, 0);
+        String vmSequential = vm(program, 0);
+
+        // Warm up the JIT on both paths before anything is measured
+        for (int r = 0; r < REPEAT; r++)
+        {
+            v2vm(program, 0);
+            vm(program, 0);
+            v2vm(program, cores);
+            vm(program, cores);
+        }
+
+        System.out.println(functions + " functions of " + instructions + " instructions, " + cores + " processors");
+        System.out.println(String.format("%8s %12s %8s %12s %8s", "threads", "V2VM ms", "speedup", "VM ms", "speedup"));
+
+        long v2vmBase = best(() -> v2vm(program, 0));
+        long vmBase = best(() -> vm(program, 0));
+        System.out.println(String.format("%8s %12.1f %8s %12.1f %8s", "seq", v2vmBase / 1e6, "1.00", vmBase / 1e6, "1.00"));
+
+        for (int n : threadCounts(cores))
+        {
+            if (!v2vm(program, n).equals(v2vmSequential) || !vm(program, n).equals(vmSequential))
+                throw new AssertionError("--parallel=" + n + " output differs from the sequential output");
+
+            long v2vmTime = best(() -> v2vm(program, n));
+            long vmTime = best(() -> vm(program, n));
+
+            System.out.println(String.format("%8d %12.1f %8.2f %12.1f %8.2f", n, v2vmTime / 1e6, (double) v2vmBase / v2vmTime, vmTime / 1e6, (double) vmBase / vmTime));
+        }
+    }
+
+    // 1, 2, 4, ... and the number of processors
+    static List<Integer> threadCounts(int cores)
+    {
+        List<Integer> counts = new ArrayList<>();
+
+        for (int threads = 1; threads < cores; threads *= 2)
+            counts.add(threads);
+
+        counts.add(cores);
+
+        return counts;
+    }
+
+    interface Run
+    {
+        String run() throws Exception;
+    }
+
+    static long best(Run run) throws Exception
+    {
+        run.run();
+
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < REPEAT; r++)
+        {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best;
+    }
+
+    static String v2vm(VaporProgram program, int threads) throws Exception
+    {
+        V2VMOptions options = new V2VMOptions();
+        options.parallelism = threads;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        VaporMWriter writer = new VaporMWriter(Channels.newChannel(output));
+
+        if (threads > 0)
+            V2VM.compileParallel(program.functions, null, null, null, options, writer, System.err);
+        else
+        {
+            for (VFunction function : program.functions)
+                writer.writeFunction(V2VM.compileFunction(function, options, System.err));
+        }
+
+        writer.flush();
+
+        return output.toString();
+    }
+
+    static String vm(VaporProgram program, int threads)
+    {
+        VMOptions options = new VMOptions();
+        options.parallelism = threads;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true);
+
+        if (threads > 0)
+            VM.compileParallel(program.functions, null, options, out, System.err);
+        else
+        {
+            for (VFunction function : program.functions)
+                VM.compileFunction(function, options, out, System.err);
+        }
+
+        return output.toString();
+    }
+
+    // Functions F0..Fn-1 in the shape of CfgScaling's, Main printing a constant
+    static String syntheticProgram(int functions, int instructions)
+    {
+        StringBuilder source = new StringBuilder("func Main()\n  PrintIntS(0)\n  ret\n\n");
+
+        for (int f = 0; f < functions; f++)
+        {
+            source.append("func F").append(f).append("(a)\n");
+            source.append(CfgScaling.syntheticBody("F" + f + "_", instructions));
+            source.append("\n");
+        }
+
+        return source.toString();
+    }
+}
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Old vs. new V2VM linear scan on the hole-free intervals of Phase3Tests,
+# and the spills of the new one with lifetime holes.
+# Usage: bench/allocator.sh [vapor files...]
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java bench/AllocatorBench.java || exit 1
+
+if [ $# -eq 0 ]
+then
+    set -- Phase3Tests/*.vapor
+fi
+
+java -classpath "vapor-parser.jar:$classes" AllocatorBench "$@"
@@ -0,0 +1,40 @@
+#!/bin/bash
+# Linear scan vs. graph coloring: total spills and emitted instructions per
+# program, for both translators.
+# Usage: bench/allocators.sh [vapor files...]
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java VM.java || exit 1
+
+if [ $# -eq 0 ]
+then
+    set -- Phase3Tests/*.vapor
+fi
+
+# instructions: lines that are not blank, labels, function headers or const data
+count_instructions()
+{
+    grep -v -e '^\s*$' -e ':$' -e '^func ' -e '^const ' -e '^\s*:' | wc -l
+}
+
+count_spills()
+{
+    awk '{ s += $2 } END { print s + 0 }'
+}
+
+printf "%-24s %-5s %12s %12s %12s %12s\n" program tool "ls spills" "gc spills" "ls instrs" "gc instrs"
+
+for f in "$@"
+do
+    for tool in V2VM VM
+    do
+        ls_spills=$(java -classpath "vapor-parser.jar:$classes" $tool --allocator=linearscan --allocation-stats < "$f" 2>&1 >/dev/null | grep ' spills$' | count_spills)
+        gc_spills=$(java -classpath "vapor-parser.jar:$classes" $tool --allocator=coloring --allocation-stats < "$f" 2>&1 >/dev/null | grep ' spills$' | count_spills)
+        ls_instrs=$(java -classpath "vapor-parser.jar:$classes" $tool --allocator=linearscan < "$f" 2>/dev/null | count_instructions)
+        gc_instrs=$(java -classpath "vapor-parser.jar:$classes" $tool --allocator=coloring < "$f" 2>/dev/null | count_instructions)
+
+        printf "%-24s %-5s %12s %12s %12s %12s\n" "$(basename "$f" .vapor)" $tool $ls_spills $gc_spills $ls_instrs $gc_instrs
+    done
+done
@@ -0,0 +1,84 @@
+#!/bin/bash
+# Executed cost of the code V2VM and VM emit for each program, counted by
+# VaporMInterpreter, next to the reference translation in Phase4Tests. A
+# translation whose output differs from the reference's is marked wrong and
+# left out of the totals; a tool that rejects the flags is marked n/a.
+# Usage: bench/cost.sh [V2VM/VM flags] [vapor files...]
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java VM.java VaporMInterpreter.java || exit 1
+
+files=()
+flags=()
+for arg in "$@"
+do
+    case "$arg" in
+    --*) flags+=("$arg") ;;
+    *) files+=("$arg") ;;
+    esac
+done
+
+if [ ${#files[@]} -eq 0 ]
+then
+    files=(Phase3Tests/*.vapor)
+fi
+
+# run a .vaporm; its output goes to $2, the interpreter's total row to stdout
+run()
+{
+    java -classpath "vapor-parser.jar:$classes" VaporMInterpreter --limit=10000000 "$1" 2>&1 >"$2" | grep '^total ' | tr -s ' '
+}
+
+printf "%-24s %-5s %10s %8s %8s %8s %10s\n" program tool instrs loads stores spills cost
+declare -A sum
+
+for f in "${files[@]}"
+do
+    name=$(basename "$f" .vapor)
+    reference=Phase4Tests/$name.vaporm
+
+    if [ -f "$reference" ]
+    then
+        expected=$(run "$reference" "$classes/expected")
+    else
+        java -jar vapor.jar run "$f" > "$classes/expected" 2>/dev/null
+        expected=
+    fi
+
+    for tool in ref V2VM VM
+    do
+        if [ $tool = ref ]
+        then
+            total=$expected
+            [ -n "$total" ] || continue
+        else
+            java -classpath "vapor-parser.jar:$classes" $tool "${flags[@]}" < "$f" > "$classes/out.vaporm" 2>/dev/null
+
+            if [ $? -eq 2 ]
+            then
+                printf "%-24s %-5s %10s\n" "$name" $tool n/a
+                continue
+            fi
+
+            total=$(run "$classes/out.vaporm" "$classes/actual")
+
+            if ! cmp -s "$classes/expected" "$classes/actual"
+            then
+                printf "%-24s %-5s %10s\n" "$name" $tool wrong
+                continue
+            fi
+        fi
+
+        # total calls instrs loads stores local-r local-w in out cost
+        set -- $total
+        printf "%-24s %-5s %10d %8d %8d %8d %10d\n" "$name" $tool $3 $4 $5 $(($6 + $7)) ${10}
+        sum[$tool]=$(( ${sum[$tool]:-0} + ${10} ))
+    done
+done
+
+for tool in ref V2VM VM
+do
+    printf "%-24s %-5s %10s %8s %8s %8s %10d\n" total $tool "" "" "" "" ${sum[$tool]:-0}
+done
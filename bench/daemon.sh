@@ -0,0 +1,64 @@
+#!/bin/bash
+# Build time of Phase3Tests with one JVM per file, against the resident daemon
+# with one client per file and with one client for the whole suite. Every
+# daemon output is checked against the per-JVM output.
+# Usage: bench/daemon.sh [TOOL] [rounds]
+cd "$(dirname "$0")/.."
+
+tool=${1:-VM}
+rounds=${2:-5}
+classes=$(mktemp -d)
+socket=$classes/socket
+trap 'java -classpath "$classes" CompileClient "$socket" STOP >/dev/null 2>&1; rm -rf "$classes"' EXIT
+
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" CompileDaemon.java CompileClient.java V2VM.java VM.java || exit 1
+java -classpath "vapor-parser.jar:$classes" CompileDaemon "$socket" &
+while [ ! -S "$socket" ]; do sleep 0.1; done
+
+mkdir -p "$classes/jvm" "$classes/client" "$classes/batch"
+files=(Phase3Tests/*.vapor)
+
+millis()
+{
+    local start=$(date +%s%N)
+    "$@"
+    echo $(( ($(date +%s%N) - start) / 1000000 ))
+}
+
+jvm()
+{
+    for f in "${files[@]}"; do
+        java -classpath "vapor-parser.jar:$classes" $tool < "$f" > "$classes/jvm/$(basename "$f" .vapor).vaporm" 2>/dev/null
+    done
+}
+
+client()
+{
+    for f in "${files[@]}"; do
+        java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -classpath "$classes" CompileClient "$socket" $tool < "$f" > "$classes/client/$(basename "$f" .vapor).vaporm" 2>/dev/null
+    done
+}
+
+batch()
+{
+    java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -classpath "$classes" CompileClient "$socket" $tool -d "$classes/batch" "${files[@]}" 2>/dev/null
+}
+
+echo "$tool, ${#files[@]} files, milliseconds per round"
+printf "%8s %12s %12s %12s\n" round "JVM per file" "client/file" "one client"
+for r in $(seq "$rounds"); do
+    printf "%8d %12d %12d %12d\n" "$r" "$(millis jvm)" "$(millis client)" "$(millis batch)"
+done
+
+status=0
+for f in "${files[@]}"; do
+    n=$(basename "$f" .vapor).vaporm
+    # V2VM prints some operands with their identity hash, which varies per run
+    for d in client batch; do
+        if ! cmp -s <(sed 's/@[0-9a-f]*/@/g' "$classes/jvm/$n") <(sed 's/@[0-9a-f]*/@/g' "$classes/$d/$n"); then
+            echo "MISMATCH $d $n"
+            status=1
+        fi
+    done
+done
+exit $status
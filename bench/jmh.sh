@@ -0,0 +1,13 @@
+#!/bin/bash
+# JMH benchmarks of each phase of V2VM and VM on every Phase3Tests program
+# (bench/jmh/Bench/PhaseBenchmark.java), with the gc profiler reporting the
+# bytes allocated per op as gc.alloc.rate.norm, counted from CFG construction
+# through the phase (see PhaseBenchmark). Builds them with Maven first.
+# Usage: bench/jmh.sh [JMH options] [benchmark regexps], for example
+#        bench/jmh.sh -p tool=VM -p program=BinaryTree,TreeVisitor 'liveness|allocation'
+#        bench/jmh.sh -p flags=--allocator=coloring allocation
+cd "$(dirname "$0")/.."
+
+mvn -q -B test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/jmh.classpath || exit 1
+
+exec java -classpath "target/test-classes:target/classes:$(cat target/jmh.classpath)" org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,138 @@
+package Bench;
+
+import cs132.vapor.ast.VFunction;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Each phase of V2VM and VM on its own, on each Phase3Tests program: the
+// parser on the whole program, then CFG construction, liveness, interval
+// building, register allocation and emission on every function of it. Run
+// through bench/jmh.sh, which adds the gc profiler for the allocation per op.
+//
+// Most phases change what they are given (liveness marks its CFG solved,
+// allocation assigns its intervals), so the phases before the measured one
+// run again, untimed, before each call.
+// The gc profiler still counts what they allocate: gc.alloc.rate.norm of a
+// phase is the bytes of CFG construction through that phase, and the phase's
+// own bytes are the difference from the one before it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark
+{
+    static final List<String> PHASES = Arrays.asList("cfg", "liveness", "intervals", "allocation", "emission");
+
+    @Param({ "V2VM", "VM" })
+    public String tool;
+
+    @Param({ "1-Basic", "2-Loop", "BinaryTree", "BinaryTree.opt", "BubbleSort", "BubbleSort.opt", "Factorial", "Factorial.opt",
+             "LinearSearch", "LinearSearch.opt", "LinkedList", "LinkedList.opt", "MoreThan4", "MoreThan4.opt",
+             "QuickSort", "QuickSort.opt", "ShortCircuit", "ShortCircuit.opt", "TreeVisitor", "TreeVisitor.opt" })
+    public String program;
+
+    // the tool's own flags, separated by spaces, e.g. -p flags=--allocator=coloring
+    @Param({ "" })
+    public String flags;
+
+    private Phases phases;
+    private byte[] source;
+    private VFunction[] functions;
+    private Object[] inputs;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception
+    {
+        String[] toolFlags = flags.isEmpty() ? new String[0] : flags.split(" ");
+        phases = (Phases) Class.forName(tool + "Steps").getConstructor(String[].class).newInstance((Object) toolFlags);
+
+        source = Files.readAllBytes(Paths.get("Phase3Tests", program + ".vapor"));
+        functions = phases.parse(source).functions;
+        inputs = new Object[functions.length];
+    }
+
+    // the input of the measured phase for every function, from the phases before it
+    @Setup(Level.Invocation)
+    public void prepare(BenchmarkParams params) throws Exception
+    {
+        String benchmark = params.getBenchmark();
+        int phase = PHASES.indexOf(benchmark.substring(benchmark.lastIndexOf('.') + 1));
+
+        for (int i = 0; i < functions.length && phase >= 0; i++)
+        {
+            Object input = functions[i];
+
+            for (int before = 0; before < phase; before++)
+                input = run(before, input);
+
+            inputs[i] = input;
+        }
+    }
+
+    private Object run(int phase, Object input) throws Exception
+    {
+        switch (phase)
+        {
+        case 0:
+            return phases.cfg((VFunction) input);
+        case 1:
+            return phases.liveness(input);
+        case 2:
+            return phases.intervals(input);
+        case 3:
+            return phases.allocation(input);
+        default:
+            return phases.emission(input);
+        }
+    }
+
+    private void measure(int phase, Blackhole blackhole) throws Exception
+    {
+        for (Object input : inputs)
+            blackhole.consume(run(phase, input));
+    }
+
+    @Benchmark
+    public Object parse() throws Exception
+    {
+        return phases.parse(source);
+    }
+
+    @Benchmark
+    public void cfg(Blackhole blackhole) throws Exception
+    {
+        measure(0, blackhole);
+    }
+
+    @Benchmark
+    public void liveness(Blackhole blackhole) throws Exception
+    {
+        measure(1, blackhole);
+    }
+
+    @Benchmark
+    public void intervals(Blackhole blackhole) throws Exception
+    {
+        measure(2, blackhole);
+    }
+
+    @Benchmark
+    public void allocation(Blackhole blackhole) throws Exception
+    {
+        measure(3, blackhole);
+    }
+
+    @Benchmark
+    public void emission(Blackhole blackhole) throws Exception
+    {
+        measure(4, blackhole);
+    }
+}
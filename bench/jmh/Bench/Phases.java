@@ -0,0 +1,23 @@
+package Bench;
+
+import cs132.vapor.ast.VFunction;
+import cs132.vapor.ast.VaporProgram;
+
+// The phases of one translator, run one at a time on one function, each taking
+// what the phase before it returned. The translators live in the unnamed
+// package, which a benchmark cannot import from, so V2VMSteps and VMSteps
+// implement this there and PhaseBenchmark loads them by name.
+public interface Phases
+{
+    VaporProgram parse(byte[] source) throws Exception;
+
+    Object cfg(VFunction function) throws Exception;
+
+    Object liveness(Object cfg) throws Exception;
+
+    Object intervals(Object liveness) throws Exception;
+
+    Object allocation(Object intervals) throws Exception;
+
+    Object emission(Object allocation) throws Exception;
+}
@@ -0,0 +1,92 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+
+// V2VM one phase at a time, as V2VM.compileFunction runs them; see Bench.Phases.
+public class V2VMSteps implements Bench.Phases
+{
+    // one function, filled in a phase at a time
+    static class State
+    {
+        VFunction function;
+        VaporFunctionVisitor<Exception> visitor;
+        LiveIntervals intervals;
+        RegisterAllocator allocator;
+    }
+
+    private final V2VMOptions options;
+
+    public V2VMSteps(String[] flags)
+    {
+        options = V2VMOptions.parse(flags);
+    }
+
+    public VaporProgram parse(byte[] source) throws IOException
+    {
+        return V2VM.parseVapor(new ByteArrayInputStream(source), System.err);
+    }
+
+    public Object cfg(VFunction function) throws Exception
+    {
+        State state = new State();
+        state.function = function;
+        state.visitor = new VaporFunctionVisitor<>();
+        state.visitor.treeSetLiveness = options.treeSetLiveness;
+        state.visitor.blockLiveness = options.blockLiveness;
+        state.visitor.set_vaporFunction(function);
+
+        for (VInstr instr : function.body)
+            instr.accept(state.visitor);
+
+        state.visitor.get_symbols();
+
+        return state;
+    }
+
+    public Object liveness(Object cfg)
+    {
+        State state = (State) cfg;
+        state.visitor.computeLiveness();
+
+        return state;
+    }
+
+    public Object intervals(Object liveness)
+    {
+        State state = (State) liveness;
+        state.intervals = state.visitor.get_liveIntervals();
+
+        return state;
+    }
+
+    public Object allocation(Object intervals)
+    {
+        State state = (State) intervals;
+
+        state.allocator = new RegisterAllocator(state.function, state.intervals);
+        state.allocator.setSpillWeights(state.visitor.get_spillWeights());
+        state.allocator.setLiveAcrossCalls(state.visitor.get_liveAcrossCalls());
+
+        if (options.coloring)
+            state.allocator.GraphColoringRegisterAllocation(state.visitor.get_liveness(), state.visitor.controlFlowGraph);
+        else
+            state.allocator.LinearScanRegisterAllocation();
+
+        state.allocator.PackStackLocations();
+
+        return state;
+    }
+
+    public Object emission(Object allocation) throws Exception
+    {
+        State state = (State) allocation;
+
+        VaporVisitor<Exception> vaporVisitor = new VaporVisitor<>();
+        vaporVisitor.setData(state.function, state.allocator, state.visitor.get_liveness());
+
+        for (VInstr instr : state.function.body)
+            instr.accept(vaporVisitor);
+
+        return vaporVisitor.buffer;
+    }
+}
@@ -0,0 +1,83 @@
+import cs132.vapor.ast.*;
+
+import java.io.*;
+import java.util.*;
+
+// VM one phase at a time, as VM.compileFunction runs them; see Bench.Phases.
+// Only linear scan works from the intervals; the other allocators build what
+// they need from the flow graph themselves.
+public class VMSteps implements Bench.Phases
+{
+    // one function, filled in a phase at a time
+    static class State
+    {
+        VFunction function;
+        FlowGraph graph;
+        Liveness liveness;
+        List<Interval> intervals;
+        AllocationMap map;
+    }
+
+    private final VMOptions options;
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    public VMSteps(String[] flags)
+    {
+        options = VMOptions.parse(flags);
+    }
+
+    public VaporProgram parse(byte[] source) throws IOException
+    {
+        return VM.parseVapor(new ByteArrayInputStream(source), System.err);
+    }
+
+    public Object cfg(VFunction function)
+    {
+        State state = new State();
+        state.function = function;
+        state.graph = RegAllocHelper.generateFlowGraph(function);
+
+        return state;
+    }
+
+    public Object liveness(Object cfg)
+    {
+        State state = (State) cfg;
+        state.liveness = state.graph.computLiveness(options.liveness);
+
+        return state;
+    }
+
+    public Object intervals(Object liveness)
+    {
+        State state = (State) liveness;
+        state.intervals = RegAllocHelper.generateLiveIntervals(state.graph, state.liveness);
+
+        return state;
+    }
+
+    public Object allocation(Object intervals)
+    {
+        State state = (State) intervals;
+
+        if (options.allocator.equals("coloring"))
+            state.map = new GraphColoringAllocator().computeAllocation(state.graph, state.liveness, state.function.params);
+        else if (options.allocator.equals("binpacking"))
+            state.map = new BinpackingAllocator().computeAllocation(state.graph, state.liveness, state.function.params);
+        else
+            state.map = new Allocator().computeAllocation(state.intervals, state.function.params, state.graph);
+
+        return state;
+    }
+
+    public Object emission(Object allocation)
+    {
+        State state = (State) allocation;
+
+        Converter converter = new Converter();
+        converter.getOutput().setOutputStream(discard);
+        converter.outputFunction(state.function, state.map, state.liveness);
+
+        return converter;
+    }
+}
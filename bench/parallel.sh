@@ -0,0 +1,10 @@
+#!/bin/bash
+# Speedup of per-function parallel compilation (--parallel) in V2VM and VM.
+# Usage: bench/parallel.sh [functions] [instructions per function]
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java VM.java bench/CfgScaling.java bench/ParallelScaling.java || exit 1
+
+java -classpath "vapor-parser.jar:$classes" ParallelScaling "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+# CFG construction + liveness scaling of V2VM on synthetic functions.
+# Usage: bench/scaling.sh [--liveness=treeset] [sizes...]
+# Prints the best of five runs per size: each phase in ms, and both phases
+# together in ns per instruction.
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java bench/CfgScaling.java || exit 1
+
+java -classpath "vapor-parser.jar:$classes" CfgScaling "$@"
@@ -0,0 +1,49 @@
+#!/bin/bash
+# Check that the V2VM function cache is keyed on every class the translator
+# loads: after a warm run, recompiling any one of them (here with only its
+# line numbers moved) must make the next run miss on every function.
+cd "$(dirname "$0")"
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+classes=$work/classes
+javac -encoding UTF-8 -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java || exit 1
+
+program=Phase3Tests/BinaryTree.vapor
+status=0
+
+# the cache line of --cache-stats for one compile with the classes in $1
+stats()
+{
+    java -classpath "vapor-parser.jar:$1" V2VM --allocator=coloring --cache="$work/cache" --cache-stats < "$program" 2>&1 >/dev/null | grep '^cache:'
+}
+
+# $1 a pattern for the cache line $2, $3 what was done
+expect()
+{
+    case "$2" in
+    $1) echo "ok   $3: $2" ;;
+    *) echo "FAIL $3: $2"; status=1 ;;
+    esac
+}
+
+stats "$classes" >/dev/null
+expect "cache: * 0 misses*" "$(stats "$classes")" "warm run"
+
+(cd "$classes" && jar cf "$work/v2vm.jar" .)
+stats "$work/v2vm.jar" >/dev/null
+expect "cache: * 0 misses*" "$(stats "$work/v2vm.jar")" "warm run from a jar"
+
+for source in RegAlloc/Color.java RegAlloc/TempInterferenceGraph.java RegAlloc/InterferenceGraph.java RegAlloc/MoveList.java \
+              Graph/Graph.java Graph/Node.java Graph/NodeList.java Graph/EdgeSet.java ControlFlowGraph/BasicBlocks.java Symbol/SymbolTable.java
+do
+    stats "$classes" >/dev/null
+
+    mkdir -p "$work/src/$(dirname "$source")"
+    { echo; cat "$source"; } > "$work/src/$source"
+    javac -encoding UTF-8 -classpath "vapor-parser.jar:$classes" -d "$classes" "$work/src/$source" || exit 1
+
+    expect "cache: 0 hits*" "$(stats "$classes")" "$source changed"
+done
+
+exit $status
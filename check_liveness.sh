@@ -0,0 +1,23 @@
+#!/bin/bash
+# Differential check of V2VM liveness: runs the bit vector solver and the
+# original TreeSet solver side by side on every Phase3Tests program and
+# reports any node whose in/out sets differ.
+cd "$(dirname "$0")"
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -classpath vapor-parser.jar -sourcepath . -d "$classes" V2VM.java || exit 1
+
+status=0
+for f in Phase3Tests/*.vapor
+do
+    if java -classpath "vapor-parser.jar:$classes" V2VM --check-liveness < "$f" 2>&1 >/dev/null | grep -q "liveness mismatch"
+    then
+        echo "FAIL $f"
+        status=1
+    else
+        echo "ok   $f"
+    fi
+done
+
+exit $status
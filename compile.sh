@@ -1,3 +1,3 @@
 jar xf vapor-parser.jar
-javac -classpath vapor-parser.jar VM.java
+javac -classpath vapor-parser.jar -sourcepath . VM.java
 java VM < /Users/Enrique/Desktop/minijava_phase3/Phase3Tests/MoreThan4.vapor > P.vaporm
\ No newline at end of file
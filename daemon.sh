@@ -0,0 +1,61 @@
+#!/bin/bash
+# Resident compile daemon for V2VM and VM (see CompileDaemon.java).
+# Usage: ./daemon.sh start [SOCKET]    build, then serve in the background
+#        ./daemon.sh stop [SOCKET]
+#        ./daemon.sh TOOL [--flag ...] [-d DIR] [FILE ...]   translate through it
+# FILE and DIR are taken from the current directory, as with V2VM and VM.
+#
+# The daemon's classes, socket and log live in a directory of your own:
+# $XDG_RUNTIME_DIR/vapor-daemon, or ~/.cache/vapor-daemon without one. Anyone
+# who could write there could run code as you, so the script refuses to use
+# the directory unless you own it and only you can read, write or enter it.
+classes=${XDG_RUNTIME_DIR:-${XDG_CACHE_HOME:-$HOME/.cache}}/vapor-daemon
+socket=${VAPOR_DAEMON_SOCKET:-$classes/socket}
+
+# a real directory (not a link to one), owned by us, with mode 0700
+private()
+{
+    [ -n "$(find "$1" -maxdepth 0 -type d -user "$(id -u)" -perm 700 2>/dev/null)" ]
+}
+
+[ "$1" = start ] && (umask 077 && mkdir -p "$classes")
+
+if ! private "$classes"; then
+    echo "$classes must be a directory owned by you with mode 0700; not using it" >&2
+    exit 1
+fi
+
+case "$1" in
+start)
+    socket=$(realpath -m "${2:-$socket}")
+    cd "$(dirname "$0")"
+    javac -encoding UTF-8 -Xlint:all -classpath vapor-parser.jar -sourcepath . -d "$classes" CompileDaemon.java CompileClient.java V2VM.java VM.java || exit 1
+    # the daemon replaces a stale socket too; gone now, it cannot be mistaken for the new one
+    rm -f "$socket"
+    nohup java -classpath "$PWD/vapor-parser.jar:$classes" CompileDaemon "$socket" > "$classes/daemon.log" 2>&1 &
+    pid=$!
+
+    # up to 30 seconds for the socket, unless the daemon dies first
+    for i in $(seq 300); do
+        [ -S "$socket" ] && break
+        kill -0 $pid 2>/dev/null || break
+        sleep 0.1
+    done
+
+    if [ ! -S "$socket" ] || ! kill -0 $pid 2>/dev/null; then
+        echo "daemon did not start:" >&2
+        cat "$classes/daemon.log" >&2
+        kill $pid 2>/dev/null
+        exit 1
+    fi
+
+    echo "listening on $socket"
+    ;;
+stop)
+    java -classpath "$classes" CompileClient "${2:-$socket}" STOP
+    ;;
+*)
+    # the client runs too briefly for the optimizing JIT or a parallel GC to pay off
+    exec java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -classpath "$classes" CompileClient "$socket" "$@"
+    ;;
+esac